@@ -19,6 +19,7 @@
 package com.jecelyin.editor.v2;
 
 import com.jecelyin.common.app.JecApp;
+import com.jecelyin.editor.v2.highlight.SyntaxParser;
 import com.squareup.leakcanary.LeakCanary;
 import com.squareup.leakcanary.RefWatcher;
 
@@ -39,4 +40,16 @@ public class MainApp extends JecApp {
         refWatcher.watch(object);
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        SyntaxParser.trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        SyntaxParser.trimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
 }
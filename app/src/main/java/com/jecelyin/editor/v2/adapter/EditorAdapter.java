@@ -224,6 +224,7 @@ public class EditorAdapter extends ViewPagerAdapter {
         if (!(state instanceof SavedState))
             return;
         EditorDelegate.SavedState[] ss = ((SavedState)state).states;
+        EditorDelegate.deleteStaleUndoHistory(context, ss);
         list.clear();
         for (int i = 0; i < ss.length; i++) {
             list.add(new EditorDelegate(ss[i]));
@@ -26,6 +26,13 @@ import com.jecelyin.editor.v2.core.text.SpannableStringBuilder;
  */
 public interface ReadFileListener {
     void onStart();
+
+    /**
+     * 在UI线程中调用
+     * @param preview 首屏内容，只有第一次回调时不为null
+     * @param progress 0-100
+     */
+    void onProgress(CharSequence preview, int progress);
     SpannableStringBuilder onAsyncReaded(FileReader fileReader, boolean ok);
     void onDone(SpannableStringBuilder spannableStringBuilder, boolean ok);
 }
@@ -3,10 +3,27 @@ package com.jecelyin.editor.v2.core.content;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import com.jecelyin.common.utils.L;
 import com.jecelyin.editor.v2.core.text.TextUtils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Top-level class for managing and interacting with the global undo state for
@@ -42,7 +59,22 @@ public class UndoManager {
     private final ArrayList<UndoState> mUndos = new ArrayList<UndoState>();
     private final ArrayList<UndoState> mRedos = new ArrayList<UndoState>();
     private int mUpdateCount;
-    private int mHistorySize = 20;
+    private int mHistorySize = -1;
+    /**
+     * 撤销和重做历史最多占用的内存，超出时先把旧的大段文字移到临时文件，还不够再丢掉最旧的状态
+     */
+    private int mHistoryBudget = DEFAULT_HISTORY_BUDGET;
+    /**
+     * 两个栈中所有状态记下的内存大小之和，状态进出栈、合并、移到临时文件时更新
+     */
+    private long mMemorySize;
+    /**
+     * 两个栈底部已经尝试过移到临时文件的状态数，下次从这里接着移
+     */
+    private int mSpilledUndos;
+    private int mSpilledRedos;
+    private File mSpillDir;
+    private UndoSpillFile mSpillFile;
     private UndoState mWorking;
     private int mCommitId = 1;
     private boolean mInUndo;
@@ -52,6 +84,25 @@ public class UndoManager {
     private int mNextSavedIdx;
     private UndoOwner[] mStateOwners;
 
+    /**
+     * 从历史文件恢复时只读了文件头，第一次撤销或重做时才把这些状态读进来。
+     * 文件中撤销部分的 [mPendingUndoStart, mPendingUndoStart + mPendingUndos) 是还没读进来的状态，
+     * 重做部分同理，其它的已经被丢掉或者在内存里
+     */
+    private File mPendingFile;
+    private UndoOwner mPendingOwner;
+    private OperationReader mPendingReader;
+    private int mPendingUndoStart;
+    private int mPendingUndos;
+    private int mPendingRedoStart;
+    private int mPendingRedos;
+    private int mPendingTopCommitId;
+    /**
+     * mPendingFile 里撤销和重做状态的总数
+     */
+    private int mPendingFileUndos;
+    private int mPendingFileRedos;
+
     /**
      * Never merge with the last undo state.
      */
@@ -68,6 +119,31 @@ public class UndoManager {
      */
     public static final int MERGE_MODE_ANY = 2;
 
+    public static final int DEFAULT_HISTORY_BUDGET = 8 * 1024 * 1024;
+
+    /**
+     * 每个撤销状态本身的开销
+     */
+    private static final int STATE_MEMORY_SIZE = 64;
+
+    private static final int HISTORY_MAGIC = 0x39325548; //92UH
+    private static final int HISTORY_VERSION = 2;
+    /**
+     * 历史文件的读写都放在这个线程里按顺序执行，恢复时不会读到还没写完的文件
+     */
+    private static final ExecutorService HISTORY_EXECUTOR = Executors.newSingleThreadExecutor();
+    /**
+     * 排队等着写的历史文件的文件头，恢复时直接用，不用等前面的写完
+     */
+    private static final HashMap<String, int[]> PENDING_HEADERS = new HashMap<String, int[]>();
+
+    /**
+     * 从撤销历史文件中读回 {@link UndoOperation.Persistable} 写入的操作
+     */
+    public interface OperationReader {
+        UndoOperation<?> read(UndoOwner owner, DataInputStream in) throws IOException;
+    }
+
     public UndoOwner getOwner(String tag, Object data) {
         if (tag == null) {
             throw new NullPointerException("tag can't be null");
@@ -171,12 +247,20 @@ public class UndoManager {
         int stype;
         while ((stype=p.readInt()) != 0) {
             UndoState ustate = new UndoState(this, p, pp.getClassLoader());
+            //新的状态不能和恢复出来的状态用同一个 id
+            if (ustate.getCommitId() >= mCommitId) {
+                mCommitId = ustate.getCommitId() + 1;
+            }
             if (stype == 1) {
                 mUndos.add(0, ustate);
             } else {
                 mRedos.add(0, ustate);
             }
+            countState(ustate);
         }
+        //状态都加在了栈底，重新从头找可以移到临时文件的
+        mSpilledUndos = 0;
+        mSpilledRedos = 0;
     }
 
     UndoOwner restoreOwner(Parcel in) {
@@ -191,6 +275,453 @@ public class UndoManager {
         return owner;
     }
 
+    /**
+     * 把撤销和重做历史写到文件，不受 Binder 传输大小的限制，进程被杀后也能恢复。
+     * 在UI线程中只复制每个操作的数据，写文件在后台进行。
+     * 还没读进来的状态在后台从原来的文件复制过去，不会在UI线程中读
+     *
+     * @return 有操作不支持保存到文件时返回 false，旧的历史文件会被删除
+     */
+    public boolean saveHistory(final File file) {
+        if (mUpdateCount > 0) {
+            throw new IllegalStateException("Can't save state while updating");
+        }
+        final File source = mPendingFile;
+        if (source != null && source.equals(file) && mUndos.isEmpty() && mRedos.isEmpty()
+                && mPendingUndoStart == 0 && mPendingUndos == mPendingFileUndos
+                && mPendingRedoStart == 0 && mPendingRedos == mPendingFileRedos) {
+            //恢复之后没有新的状态，文件里的就是全部历史
+            return true;
+        }
+        final StateSnapshot[] undos = snapshotStates(mUndos);
+        final StateSnapshot[] redos = undos == null ? null : snapshotStates(mRedos);
+        if (redos == null) {
+            releaseSnapshots(undos);
+            deleteHistory(file);
+            return false;
+        }
+        final int[] range = source == null ? null
+                : new int[]{mPendingUndoStart, mPendingUndos, mPendingRedoStart, mPendingRedos};
+        final int[] header = new int[]{mPendingUndos + undos.length, mPendingRedos + redos.length,
+                getTopCommitId(), mCommitId};
+        synchronized (PENDING_HEADERS) {
+            PENDING_HEADERS.put(file.getPath(), header);
+        }
+        if (source != null) {
+            //还没读进来的状态在新文件中排在最前面
+            mPendingFile = file;
+            mPendingUndoStart = 0;
+            mPendingRedoStart = 0;
+            mPendingFileUndos = header[0];
+            mPendingFileRedos = header[1];
+        }
+        HISTORY_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeHistory(file, source, range, undos, redos, header[2], header[3]);
+                } finally {
+                    releaseSnapshots(undos);
+                    releaseSnapshots(redos);
+                    synchronized (PENDING_HEADERS) {
+                        //后面又排了一次保存时留给那次去清除
+                        if (PENDING_HEADERS.get(file.getPath()) == header)
+                            PENDING_HEADERS.remove(file.getPath());
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 恢复 {@link #saveHistory(File)} 保存的历史，这里只读文件头，
+     * 状态在第一次撤销或重做时才读进来，恢复标签页不用等整个历史
+     *
+     * @param owner 恢复出来的操作都属于这个 owner
+     * @return 文件不存在或者格式不对时返回 false
+     */
+    public boolean restoreHistory(final File file, UndoOwner owner, OperationReader reader) {
+        if (mUpdateCount > 0) {
+            throw new IllegalStateException("Can't restore state while updating");
+        }
+        forgetUndos(null, -1);
+        forgetRedos(null, -1);
+        mPendingFile = null;
+
+        //文件还在排队写的话文件头就是保存时的那份，写完之前不会读状态
+        int[] header;
+        synchronized (PENDING_HEADERS) {
+            header = PENDING_HEADERS.get(file.getPath());
+        }
+        if (header == null)
+            header = readHistoryHeader(file);
+        if (header == null)
+            return false;
+
+        mPendingFile = file;
+        mPendingOwner = owner;
+        mPendingReader = reader;
+        mPendingUndoStart = 0;
+        mPendingUndos = header[0];
+        mPendingRedoStart = 0;
+        mPendingRedos = header[1];
+        mPendingTopCommitId = header[2];
+        mPendingFileUndos = header[0];
+        mPendingFileRedos = header[1];
+        //新的状态不能和恢复出来的状态用同一个 id
+        if (header[3] > mCommitId) {
+            mCommitId = header[3];
+        }
+        return true;
+    }
+
+    /**
+     * 在后台删除历史文件，排在还没写完的保存后面
+     */
+    public static void deleteHistory(final File file) {
+        synchronized (PENDING_HEADERS) {
+            PENDING_HEADERS.remove(file.getPath());
+        }
+        HISTORY_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (file.exists() && !file.delete())
+                    L.d("Couldn't delete " + file);
+            }
+        });
+    }
+
+    /**
+     * 在后台删除 dir 中不在 keep 里的历史文件，排在还没写完的保存后面
+     *
+     * @param keep 还要用到的历史文件，可以为 null
+     */
+    public static void deleteHistoryFiles(final File dir, final Collection<File> keep) {
+        HISTORY_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = dir.listFiles();
+                if (files == null)
+                    return;
+                for (File file : files) {
+                    if (keep != null && keep.contains(file))
+                        continue;
+                    if (file.isFile() && !file.delete())
+                        L.d("Couldn't delete " + file);
+                }
+            }
+        });
+    }
+
+    private void loadPendingHistory() {
+        final File file = mPendingFile;
+        if (file == null)
+            return;
+        final UndoOwner owner = mPendingOwner;
+        final OperationReader reader = mPendingReader;
+        final int undoStart = mPendingUndoStart;
+        final int undoCount = mPendingUndos;
+        final int redoStart = mPendingRedoStart;
+        final int redoCount = mPendingRedos;
+        mPendingFile = null;
+        mPendingOwner = null;
+        mPendingReader = null;
+        mPendingUndos = 0;
+        mPendingRedos = 0;
+        if (undoCount == 0 && redoCount == 0)
+            return;
+
+        final ArrayList<UndoState> undos = new ArrayList<UndoState>();
+        final ArrayList<UndoState> redos = new ArrayList<UndoState>();
+        //UI线程等着读完，读出来的状态不会同时被两个线程访问
+        Boolean ok = runOnHistoryThread(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                DataInputStream in = openHistory(file);
+                if (in == null)
+                    return false;
+                try {
+                    int[] header = readHistoryHeader(in);
+                    if (header == null)
+                        return false;
+                    //已经丢掉的和已经在内存里的状态直接跳过
+                    for (int i = 0; i < header[0]; i++) {
+                        if (i >= undoStart && i < undoStart + undoCount)
+                            readState(in, owner, reader, undos);
+                        else
+                            skipState(in);
+                    }
+                    for (int i = 0; i < header[1]; i++) {
+                        if (i >= redoStart && i < redoStart + redoCount)
+                            readState(in, owner, reader, redos);
+                        else
+                            skipState(in);
+                    }
+                    return true;
+                } finally {
+                    in.close();
+                }
+            }
+        });
+        if (ok == null || !ok || undos.size() != undoCount || redos.size() != redoCount) {
+            destroyStates(undos, undos.size());
+            destroyStates(redos, redos.size());
+            return;
+        }
+
+        for (int i = 0; i < undos.size(); i++) {
+            //恢复出来的状态不再合并新的输入
+            undos.get(i).makeExecuted();
+        }
+        mUndos.addAll(0, undos);
+        mRedos.addAll(0, redos);
+        for (int i = 0; i < undos.size(); i++) {
+            countState(undos.get(i));
+        }
+        for (int i = 0; i < redos.size(); i++) {
+            countState(redos.get(i));
+        }
+        mSpilledUndos = 0;
+        mSpilledRedos = 0;
+        trimHistory();
+    }
+
+    private static void destroyStates(ArrayList<UndoState> states, int count) {
+        for (int i = 0; i < count; i++) {
+            states.remove(0).destroy();
+        }
+    }
+
+    private static StateSnapshot[] snapshotStates(ArrayList<UndoState> states) {
+        StateSnapshot[] snapshots = new StateSnapshot[states.size()];
+        for (int i = 0; i < snapshots.length; i++) {
+            snapshots[i] = states.get(i).snapshot();
+            if (snapshots[i] == null) {
+                releaseSnapshots(snapshots);
+                return null;
+            }
+        }
+        return snapshots;
+    }
+
+    private static void releaseSnapshots(StateSnapshot[] snapshots) {
+        if (snapshots == null)
+            return;
+        for (StateSnapshot snapshot : snapshots) {
+            if (snapshot != null)
+                snapshot.release();
+        }
+    }
+
+    /**
+     * @param source 还没读进来的状态所在的文件，没有时为 null
+     * @param range  source 中要复制的状态：{撤销开始位置, 撤销数, 重做开始位置, 重做数}，
+     *               复制的撤销和重做状态分别放在 undos 和 redos 前面
+     */
+    private static void writeHistory(File file, File source, int[] range,
+                                     StateSnapshot[] undos, StateSnapshot[] redos,
+                                     int topCommitId, int nextCommitId) {
+        File dir = file.getParentFile();
+        File tempFile = new File(dir, file.getName() + ".tmp");
+        FileOutputStream fos = null;
+        DataOutputStream out = null;
+        DataInputStream in = null;
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Couldn't create " + dir);
+            int[] sourceHeader = null;
+            if (source != null) {
+                in = openHistory(source);
+                sourceHeader = in == null ? null : readHistoryHeader(in);
+                if (sourceHeader == null)
+                    throw new IOException("Couldn't read " + source);
+            } else {
+                range = new int[4];
+            }
+            fos = new FileOutputStream(tempFile);
+            out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(HISTORY_MAGIC);
+            out.writeInt(HISTORY_VERSION);
+            out.writeInt(range[1] + undos.length);
+            out.writeInt(range[3] + redos.length);
+            out.writeInt(topCommitId);
+            out.writeInt(nextCommitId);
+            if (in != null)
+                copyStates(in, out, sourceHeader[0], range[0], range[1]);
+            for (StateSnapshot snapshot : undos) {
+                writeState(fos, out, snapshot);
+            }
+            if (in != null)
+                copyStates(in, out, sourceHeader[1], range[2], range[3]);
+            for (StateSnapshot snapshot : redos) {
+                writeState(fos, out, snapshot);
+            }
+            out.close();
+            out = null;
+            //写完再替换，中途被杀不会留下半个文件
+            if (!tempFile.renameTo(file))
+                throw new IOException("Couldn't rename " + tempFile + " to " + file);
+        } catch (IOException e) {
+            L.e(e);
+            tempFile.delete();
+            //旧的历史和文本已经对不上了
+            file.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    //ignore
+                }
+            } else if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                    //ignore
+                }
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    //ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * 每个状态前面是它的字节数，写完再回填，复制和跳过时不用解析操作
+     */
+    private static void writeState(FileOutputStream fos, DataOutputStream out, StateSnapshot snapshot) throws IOException {
+        out.flush();
+        FileChannel channel = fos.getChannel();
+        long lengthPosition = channel.position();
+        out.writeLong(0);
+        snapshot.write(out);
+        out.flush();
+        ByteBuffer length = ByteBuffer.allocate(8);
+        length.putLong(0, channel.position() - lengthPosition - 8);
+        channel.write(length, lengthPosition);
+    }
+
+    /**
+     * 从 in 中的 count 个状态里复制 [start, start + length)，其它的跳过
+     */
+    private static void copyStates(DataInputStream in, DataOutputStream out, int count,
+                                   int start, int length) throws IOException {
+        byte[] buffer = new byte[8192];
+        for (int i = 0; i < count; i++) {
+            if (i < start || i >= start + length) {
+                skipState(in);
+                continue;
+            }
+            long remaining = in.readLong();
+            out.writeLong(remaining);
+            while (remaining > 0) {
+                int n = (int) Math.min(buffer.length, remaining);
+                in.readFully(buffer, 0, n);
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+
+    private static void skipState(DataInputStream in) throws IOException {
+        long remaining = in.readLong();
+        while (remaining > 0) {
+            int n = in.skipBytes((int) Math.min(Integer.MAX_VALUE, remaining));
+            if (n <= 0)
+                throw new EOFException();
+            remaining -= n;
+        }
+    }
+
+    /**
+     * 只读文件头，很小，直接在调用的线程中读
+     */
+    private static int[] readHistoryHeader(File file) {
+        DataInputStream in = null;
+        try {
+            in = openHistory(file);
+            return in == null ? null : readHistoryHeader(in);
+        } catch (IOException e) {
+            L.e(e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    //ignore
+                }
+            }
+        }
+    }
+
+    private static DataInputStream openHistory(File file) throws IOException {
+        if (!file.isFile())
+            return null;
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    /**
+     * @return {undo 数, redo 数, 撤销栈顶的 id, 下一个 id}，格式不对时返回 null
+     */
+    private static int[] readHistoryHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != HISTORY_MAGIC || in.readInt() != HISTORY_VERSION)
+            return null;
+        int[] header = new int[4];
+        for (int i = 0; i < header.length; i++) {
+            header[i] = in.readInt();
+        }
+        if (header[0] < 0 || header[1] < 0)
+            return null;
+        return header;
+    }
+
+    private void readState(DataInputStream in, UndoOwner owner, OperationReader reader,
+                           ArrayList<UndoState> states) throws IOException {
+        //字节数只在复制和跳过时用到
+        in.readLong();
+        UndoState state = new UndoState(this, in.readInt());
+        //先放进去，读到一半出错时可以一起 destroy
+        states.add(state);
+        state.setCanMerge(in.readBoolean());
+        if (in.readBoolean()) {
+            state.makeExecuted();
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            state.addOperation(reader.read(owner, in));
+        }
+        state.commit();
+    }
+
+    private static <T> T runOnHistoryThread(Callable<T> callable) {
+        try {
+            return HISTORY_EXECUTOR.submit(callable).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            L.e(e.getCause());
+        }
+        return null;
+    }
+
+    private boolean matchPendingOwner(UndoOwner[] owners) {
+        if (owners == null) {
+            return true;
+        }
+        for (int i=0; i<owners.length; i++) {
+            if (owners[i] == mPendingOwner) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Set the maximum number of undo states that will be retained.
      */
@@ -208,6 +739,28 @@ public class UndoManager {
         return mHistorySize;
     }
 
+    /**
+     * 设置撤销历史的内存预算（字节）
+     */
+    public void setHistoryBudget(int bytes) {
+        mHistoryBudget = bytes;
+        trimHistory();
+    }
+
+    public int getHistoryBudget() {
+        return mHistoryBudget;
+    }
+
+    /**
+     * 设置后超出内存预算的旧文字会先移到这个目录下的临时文件中，而不是直接丢掉
+     */
+    public void setSpillDirectory(File dir) {
+        if (mSpillFile != null)
+            mSpillFile.release();
+        mSpillDir = dir;
+        mSpillFile = dir == null ? null : new UndoSpillFile(dir);
+    }
+
     /**
      * Perform undo of last/top <var>count</var> undo states.  The states impacted
      * by this can be limited through <var>owners</var>.
@@ -222,6 +775,8 @@ public class UndoManager {
             throw new IllegalStateException("Can't be called during an update");
         }
 
+        loadPendingHistory();
+
         int num = 0;
         int i = -1;
 
@@ -233,9 +788,11 @@ public class UndoManager {
         }
 
         while (count > 0 && (i=findPrevState(mUndos, owners, i)) >= 0) {
-            UndoState state = mUndos.remove(i);
+            UndoState state = removeUndo(i);
             mRedos.add(state); //要放在undo 前面，不然undo 后就触发onTextChanged 就无法正确改变工具栏图标状态
+            //撤销时会交换文字，内存大小也跟着变
             state.undo();
+            countState(state);
 
             count--;
             num++;
@@ -260,15 +817,18 @@ public class UndoManager {
             throw new IllegalStateException("Can't be called during an update");
         }
 
+        loadPendingHistory();
+
         int num = 0;
         int i = -1;
 
         mInUndo = true;
 
         while (count > 0 && (i=findPrevState(mRedos, owners, i)) >= 0) {
-            UndoState state = mRedos.remove(i);
+            UndoState state = removeRedo(i);
+            mUndos.add(state); //和 undo 一样要放在前面，onTextChanged 时栈顶已经是重做后的状态
             state.redo();
-            mUndos.add(state);
+            countState(state);
             count--;
             num++;
         }
@@ -289,36 +849,53 @@ public class UndoManager {
 
     public int forgetUndos(UndoOwner[] owners, int count) {
         if (count < 0) {
-            count = mUndos.size();
+            count = mUndos.size() + mPendingUndos;
         }
 
         int removed = 0;
+        //还没读进来的状态是最旧的，先丢它们
+        if (mPendingUndos > 0 && matchPendingOwner(owners)) {
+            removed = Math.min(count, mPendingUndos);
+            mPendingUndoStart += removed;
+            mPendingUndos -= removed;
+        }
         for (int i=0; i<mUndos.size() && removed < count; i++) {
             UndoState state = mUndos.get(i);
             if (count > 0 && matchOwners(state, owners)) {
                 state.destroy();
-                mUndos.remove(i);
+                removeUndo(i);
+                //后面的状态前移了一位，不能跳过
+                i--;
                 removed++;
             }
         }
+        releaseSpillFileIfUnused();
 
         return removed;
     }
 
     public int forgetRedos(UndoOwner[] owners, int count) {
         if (count < 0) {
-            count = mRedos.size();
+            count = mRedos.size() + mPendingRedos;
         }
 
         int removed = 0;
+        if (mPendingRedos > 0 && matchPendingOwner(owners)) {
+            removed = Math.min(count, mPendingRedos);
+            mPendingRedoStart += removed;
+            mPendingRedos -= removed;
+        }
         for (int i=0; i<mRedos.size() && removed < count; i++) {
             UndoState state = mRedos.get(i);
             if (count > 0 && matchOwners(state, owners)) {
                 state.destroy();
-                mRedos.remove(i);
+                removeRedo(i);
+                //后面的状态前移了一位，不能跳过
+                i--;
                 removed++;
             }
         }
+        releaseSpillFileIfUnused();
 
         return removed;
     }
@@ -330,10 +907,10 @@ public class UndoManager {
      */
     public int countUndos(UndoOwner[] owners) {
         if (owners == null) {
-            return mUndos.size();
+            return mUndos.size() + mPendingUndos;
         }
 
-        int count=0;
+        int count = matchPendingOwner(owners) ? mPendingUndos : 0;
         int i=0;
         while ((i=findNextState(mUndos, owners, i)) >= 0) {
             count++;
@@ -349,10 +926,10 @@ public class UndoManager {
      */
     public int countRedos(UndoOwner[] owners) {
         if (owners == null) {
-            return mRedos.size();
+            return mRedos.size() + mPendingRedos;
         }
 
-        int count=0;
+        int count = matchPendingOwner(owners) ? mPendingRedos : 0;
         int i=0;
         while ((i=findNextState(mRedos, owners, i)) >= 0) {
             count++;
@@ -505,7 +1082,7 @@ public class UndoManager {
                 if (last.allowMerge()) {
                     mWorking.destroy();
                     mWorking = state;
-                    mUndos.remove(state);
+                    removeUndo(mUndos.size() - 1);
                     mMerged = true;
                     return (T)last;
                 }
@@ -536,7 +1113,7 @@ public class UndoManager {
                     && state.canMerge() && state.hasOperation(op.getOwner())) {
                 mWorking.destroy();
                 mWorking = state;
-                mUndos.remove(state);
+                removeUndo(mUndos.size() - 1);
                 mMerged = true;
             }
         }
@@ -563,6 +1140,8 @@ public class UndoManager {
 
         if (mWorking.hasData()) {
             mUndos.add(mWorking);
+            //合并时状态先从栈中取出来了，这里按合并后的内容重新算
+            countState(mWorking);
             forgetRedos(null, -1);
             mWorking.commit();
             if (N >= 2) {
@@ -579,6 +1158,92 @@ public class UndoManager {
         if (mHistorySize >= 0 && N > mHistorySize) {
             forgetUndos(null, N - mHistorySize);
         }
+        trimHistory();
+    }
+
+    private void trimHistory() {
+        compactSpillFile();
+        if (mHistoryBudget < 0 || mMemorySize <= mHistoryBudget)
+            return;
+
+        //栈顶的状态可能还会合并新的输入，不能动；已经移过的状态不用再看
+        int last = mUndos.size() - 1;
+        if (mSpillFile != null) {
+            for (; mSpilledUndos < last && mMemorySize > mHistoryBudget; mSpilledUndos++) {
+                spillState(mUndos.get(mSpilledUndos));
+            }
+            for (; mSpilledRedos < mRedos.size() && mMemorySize > mHistoryBudget; mSpilledRedos++) {
+                spillState(mRedos.get(mSpilledRedos));
+            }
+        }
+        while (mMemorySize > mHistoryBudget && mUndos.size() > 1) {
+            UndoState state = removeUndo(0);
+            state.destroy();
+        }
+    }
+
+    private void spillState(UndoState state) {
+        int freed = state.spill(mSpillFile);
+        state.mCountedSize -= freed;
+        mMemorySize -= freed;
+    }
+
+    /**
+     * 临时文件里大部分是已经读回或者丢掉的文字时，把还在用的文字搬到新文件，删掉旧文件
+     */
+    private void compactSpillFile() {
+        if (mSpillFile == null || !mSpillFile.isWasteful())
+            return;
+        UndoSpillFile old = mSpillFile;
+        mSpillFile = new UndoSpillFile(mSpillDir);
+        for (int i = mUndos.size() - 1; i >= 0; i--) {
+            mUndos.get(i).respill(mSpillFile);
+        }
+        for (int i = mRedos.size() - 1; i >= 0; i--) {
+            mRedos.get(i).respill(mSpillFile);
+        }
+        if (mWorking != null)
+            mWorking.respill(mSpillFile);
+        old.release();
+    }
+
+    private void countState(UndoState state) {
+        state.mCountedSize = state.getMemorySize();
+        mMemorySize += state.mCountedSize;
+    }
+
+    private void uncountState(UndoState state) {
+        mMemorySize -= state.mCountedSize;
+        state.mCountedSize = 0;
+    }
+
+    /**
+     * 从撤销栈中取出状态，同时更新内存大小和已经移到临时文件的位置
+     */
+    private UndoState removeUndo(int index) {
+        UndoState state = mUndos.remove(index);
+        uncountState(state);
+        if (index < mSpilledUndos)
+            mSpilledUndos--;
+        return state;
+    }
+
+    private UndoState removeRedo(int index) {
+        UndoState state = mRedos.remove(index);
+        uncountState(state);
+        if (index < mSpilledRedos)
+            mSpilledRedos--;
+        return state;
+    }
+
+    /**
+     * 没有状态再用临时文件时换一个新的，旧文件等还没写完的历史快照释放后删除
+     */
+    private void releaseSpillFileIfUnused() {
+        if (mSpillFile != null && mSpillFile.hasData() && mUndos.isEmpty() && mRedos.isEmpty()) {
+            mSpillFile.release();
+            mSpillFile = new UndoSpillFile(mSpillDir);
+        }
     }
 
     /**
@@ -611,6 +1276,10 @@ public class UndoManager {
                 state.setCanMerge(false);
                 return state.getCommitId();
             }
+            if (state == null && mPendingUndos > 0 && (owner == null || owner == mPendingOwner)) {
+                //还没读进来的状态不会再合并
+                return mPendingTopCommitId;
+            }
         }
         return -1;
     }
@@ -640,6 +1309,17 @@ public class UndoManager {
         return false;
     }
 
+    /**
+     * @return 撤销栈顶状态的 id，栈为空时返回 0，可以用来判断文本是否回到了某个状态
+     */
+    public int getTopCommitId() {
+        UndoState state = getTopUndo(null);
+        if (state == null) {
+            return mPendingUndos > 0 ? mPendingTopCommitId : 0;
+        }
+        return state.getCommitId();
+    }
+
     UndoState getTopUndo(UndoOwner[] owners) {
         if (mUndos.size() <= 0) {
             return null;
@@ -724,6 +1404,10 @@ public class UndoManager {
         private CharSequence mLabel;
         private boolean mCanMerge = true;
         private boolean mExecuted;
+        /**
+         * 在栈中时计入 UndoManager.mMemorySize 的大小
+         */
+        int mCountedSize;
 
         UndoState(UndoManager manager, int commitId) {
             mManager = manager;
@@ -889,6 +1573,42 @@ public class UndoManager {
             mRecent = null;
         }
 
+        StateSnapshot snapshot() {
+            UndoOperation.Persistable[] ops = new UndoOperation.Persistable[mOperations.size()];
+            for (int i=0; i<ops.length; i++) {
+                ops[i] = mOperations.get(i).snapshot();
+                if (ops[i] == null) {
+                    for (int j=0; j<i; j++) {
+                        ops[j].release();
+                    }
+                    return null;
+                }
+            }
+            return new StateSnapshot(mCommitId, mCanMerge, mExecuted, ops);
+        }
+
+        int getMemorySize() {
+            int size = STATE_MEMORY_SIZE;
+            for (int i=mOperations.size()-1; i>=0; i--) {
+                size += mOperations.get(i).getMemorySize();
+            }
+            return size;
+        }
+
+        int spill(UndoSpillFile file) {
+            int freed = 0;
+            for (int i=mOperations.size()-1; i>=0; i--) {
+                freed += mOperations.get(i).spill(file);
+            }
+            return freed;
+        }
+
+        void respill(UndoSpillFile file) {
+            for (int i=mOperations.size()-1; i>=0; i--) {
+                mOperations.get(i).respill(file);
+            }
+        }
+
         void undo() {
             for (int i=mOperations.size()-1; i>=0; i--) {
                 mOperations.get(i).undo();
@@ -904,6 +1624,7 @@ public class UndoManager {
 
         void destroy() {
             for (int i=mOperations.size()-1; i>=0; i--) {
+                mOperations.get(i).discard();
                 UndoOwner owner = mOperations.get(i).mOwner;
                 owner.mOpCount--;
                 if (owner.mOpCount <= 0) {
@@ -916,4 +1637,38 @@ public class UndoManager {
             }
         }
     }
+
+    /**
+     * 撤销状态的一份快照，在后台线程中写入历史文件
+     */
+    private final static class StateSnapshot {
+        private final int mCommitId;
+        private final boolean mCanMerge;
+        private final boolean mExecuted;
+        private final UndoOperation.Persistable[] mOperations;
+
+        StateSnapshot(int commitId, boolean canMerge, boolean executed,
+                      UndoOperation.Persistable[] operations) {
+            mCommitId = commitId;
+            mCanMerge = canMerge;
+            mExecuted = executed;
+            mOperations = operations;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(mCommitId);
+            out.writeBoolean(mCanMerge);
+            out.writeBoolean(mExecuted);
+            out.writeInt(mOperations.length);
+            for (UndoOperation.Persistable op : mOperations) {
+                op.write(out);
+            }
+        }
+
+        void release() {
+            for (UndoOperation.Persistable op : mOperations) {
+                op.release();
+            }
+        }
+    }
 }
@@ -3,6 +3,9 @@ package com.jecelyin.editor.v2.core.content;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * A single undoable operation.  You must subclass this to implement the state
  * and behavior for your operation.  Instances of this class are placed and
@@ -69,6 +72,55 @@ public abstract class UndoOperation<DATA> implements Parcelable {
         return true;
     }
 
+    /**
+     * 这个操作在内存中大约占用多少字节，撤销历史按这个值限制总内存
+     */
+    public int getMemorySize() {
+        return 0;
+    }
+
+    /**
+     * 把占内存多的数据移到临时文件中，需要撤销或重做时再读回来
+     *
+     * @return 释放了多少字节
+     */
+    public int spill(UndoSpillFile file) {
+        return 0;
+    }
+
+    /**
+     * 整理临时文件时把还在旧文件里的数据搬到新文件
+     */
+    public void respill(UndoSpillFile file) {
+    }
+
+    /**
+     * 操作所在的状态被丢掉时调用，告诉临时文件这个操作的数据不再使用
+     */
+    public void discard() {
+    }
+
+    /**
+     * 在UI线程中复制一份当前的数据，之后在后台线程写入撤销历史文件
+     *
+     * @return 不支持保存到文件时返回 null
+     */
+    public Persistable snapshot() {
+        return null;
+    }
+
+    /**
+     * 操作的一份快照，按 {@link UndoManager.OperationReader} 能读回的格式写入
+     */
+    public interface Persistable {
+        void write(DataOutputStream out) throws IOException;
+
+        /**
+         * 不管写没写，快照用完后都会调用，释放快照占住的资源
+         */
+        void release();
+    }
+
     /**
      * Called when this undo state is being committed to the undo stack.
      * The implementation should perform the initial edits and save any state that
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.editor.v2.core.content;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * 撤销历史超出内存预算时，把旧操作中大段的文字按 UTF-16 追加到这个临时文件里，
+ * 撤销到那一步时再读回来
+ *
+ * 文件只会追加，读回或者丢掉的文字还占着位置，这些空间多于还在用的文字时
+ * 由 UndoManager 把还在用的文字搬到一个新文件里
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+public final class UndoSpillFile {
+    private final static int CHUNK_CHARS = 8 * 1024;
+    /**
+     * 不再使用的文字少于这个字符数时不整理
+     */
+    private final static long COMPACT_MIN_CHARS = 1024 * 1024;
+
+    private final File dir;
+    private File file;
+    private RandomAccessFile raf;
+    private final byte[] buffer = new byte[CHUNK_CHARS * 2];
+    /**
+     * 写入过的字符数和其中还有操作在用的字符数
+     */
+    private long writtenChars;
+    private long liveChars;
+    /**
+     * UndoManager 持有一个引用，还没写完的撤销历史快照各持有一个，都释放后才删除文件
+     */
+    private int refCount = 1;
+
+    UndoSpillFile(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return 文字在文件中的位置
+     */
+    public synchronized long write(CharSequence text) throws IOException {
+        if (refCount <= 0)
+            throw new IOException("Undo spill file has been released");
+        if (raf == null) {
+            file = File.createTempFile("undo", ".tmp", dir);
+            raf = new RandomAccessFile(file, "rw");
+        }
+        long offset = raf.length();
+        raf.seek(offset);
+        int length = text.length();
+        for (int start = 0; start < length; start += CHUNK_CHARS) {
+            int end = Math.min(length, start + CHUNK_CHARS);
+            int n = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                buffer[n++] = (byte) (c >> 8);
+                buffer[n++] = (byte) c;
+            }
+            raf.write(buffer, 0, n);
+        }
+        writtenChars += length;
+        liveChars += length;
+        return offset;
+    }
+
+    public synchronized String read(long offset, int length) throws IOException {
+        if (raf == null)
+            throw new IOException("Undo spill file has been released");
+        char[] chars = new char[length];
+        raf.seek(offset);
+        for (int start = 0; start < length; start += CHUNK_CHARS) {
+            int end = Math.min(length, start + CHUNK_CHARS);
+            raf.readFully(buffer, 0, (end - start) * 2);
+            for (int i = start, n = 0; i < end; i++, n += 2) {
+                chars[i] = (char) (((buffer[n] & 0xff) << 8) | (buffer[n + 1] & 0xff));
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 操作不再需要文件里的这段文字，比如已经读回内存或者操作被丢掉了
+     */
+    public synchronized void free(int length) {
+        liveChars -= length;
+    }
+
+    synchronized boolean hasData() {
+        return writtenChars > 0;
+    }
+
+    /**
+     * @return 不再使用的部分多于还在用的部分，值得整理
+     */
+    synchronized boolean isWasteful() {
+        long garbage = writtenChars - liveChars;
+        return garbage >= COMPACT_MIN_CHARS && garbage > liveChars;
+    }
+
+    /**
+     * 在后台读文件里的内容前调用，避免文件在读之前被删掉，读完后调用 {@link #release()}
+     */
+    public synchronized void retain() {
+        refCount++;
+    }
+
+    /**
+     * 所有引用都释放后删除文件，之后不能再写入
+     */
+    public synchronized void release() {
+        if (--refCount > 0 || raf == null)
+            return;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            //ignore
+        }
+        raf = null;
+        file.delete();
+        file = null;
+    }
+}
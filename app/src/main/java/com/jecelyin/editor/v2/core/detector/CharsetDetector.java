@@ -42,16 +42,8 @@ public class CharsetDetector {
 //        String encoding = detector.getDetectedCharset();
 //        detector.reset();
         // jchardet ==================
-        nsDetector det = new nsDetector(nsPSMDetector.ALL) ;
-
-        // Set an observer...
-        // The Notify() will be called when a matching charset is found.
         final List<String> charsets = new ArrayList<>();
-        det.Init(new nsICharsetDetectionObserver() {
-            public void Notify(String charset) {
-                charsets.add(charset);
-            }
-        });
+        nsDetector det = newDetector(charsets);
 
         byte[] buf = new byte[1024] ;
         int len;
@@ -70,6 +62,36 @@ public class CharsetDetector {
         }
         det.DataEnd();
 
+        return getEncoding(charsets);
+    }
+
+    /**
+     * 只检测已经读到内存中的一段采样
+     */
+    public static String detect(byte[] buf, int len) {
+        final List<String> charsets = new ArrayList<>();
+        nsDetector det = newDetector(charsets);
+        if (!det.isAscii(buf, len))
+            det.DoIt(buf, len, false);
+        det.DataEnd();
+
+        return getEncoding(charsets);
+    }
+
+    private static nsDetector newDetector(final List<String> charsets) {
+        nsDetector det = new nsDetector(nsPSMDetector.ALL) ;
+
+        // Set an observer...
+        // The Notify() will be called when a matching charset is found.
+        det.Init(new nsICharsetDetectionObserver() {
+            public void Notify(String charset) {
+                charsets.add(charset);
+            }
+        });
+        return det;
+    }
+
+    private static String getEncoding(List<String> charsets) {
         String encoding = charsets.isEmpty() ? "UTF-8" : charsets.get(0);
         if ("GB2312".equals(encoding))
             encoding = "GBK";
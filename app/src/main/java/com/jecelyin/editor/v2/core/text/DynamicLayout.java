@@ -173,9 +173,11 @@ public class DynamicLayout extends Layout
         start[TOP] = 0;
         start[DESCENT] = desc;
         start[LINE_BREAK] = 1; //jec: default has newline
+        start[REAL_LINES] = 0;
         mInts.insertAt(0, start);
 
         start[TOP] = desc - asc;
+        start[REAL_LINES] = 1;
         mInts.insertAt(1, start);
 
         mObjects.insertAt(0, dirs);
@@ -308,6 +310,14 @@ public class DynamicLayout extends Layout
         if (where + after != len && reflowed.getLineStart(n - 1) == where + after)
             n--;
 
+        int realLines = mInts.getValue(startline, REAL_LINES);
+        int oldRealCount = mInts.getValue(endline, REAL_LINES) - realLines;
+        int newRealCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (reflowed.isRealNewLine(i))
+                newRealCount++;
+        }
+
         // remove affected lines from old layout
         mInts.deleteAt(startline, endline - startline);
         mObjects.deleteAt(startline, endline - startline);
@@ -330,6 +340,7 @@ public class DynamicLayout extends Layout
 
         mInts.adjustValuesBelow(startline, START, after - before);
         mInts.adjustValuesBelow(startline, TOP, startv - endv + ht);
+        mInts.adjustValuesBelow(startline, REAL_LINES, newRealCount - oldRealCount);
 
         // insert new layout
 
@@ -362,6 +373,8 @@ public class DynamicLayout extends Layout
             objects[0] = reflowed.getLineDirections(i);
 
             ints[LINE_BREAK] = reflowed.isRealNewLine(i) ? 1 : 0;
+            ints[REAL_LINES] = realLines;
+            realLines += ints[LINE_BREAK];
 
             if (mEllipsize) {
                 ints[ELLIPSIS_START] = reflowed.getEllipsisStart(i);
@@ -626,27 +639,24 @@ public class DynamicLayout extends Layout
     public int getRealLine(int line) {
         if(!isRealNewLine(line))
             return 0;
-        int realLine = 0;
-        for(int i=0; i<=line; i++) {
-            if(isRealNewLine(i))
-                realLine++;
-        }
-        return realLine;
+        return mInts.getValue(line, REAL_LINES) + 1;
     }
 
     @Override
     public int realLineToVirtualLine(int line) {
         int count = getLineCount();
-        if(line > count)
+        if(line <= 0 || line > count || mInts.getValue(count, REAL_LINES) < line)
             return -1;
-        int realLine = 0;
-        for(int i=0; i<count; i++) {
-            if(isRealNewLine(i))
-                realLine++;
-            if(realLine == line)
-                return i;
-        }
-        return -1;
+        //找第一个之前（含自己）的真实行数达到 line 的行
+        int low = 1, high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mInts.getValue(mid, REAL_LINES) >= line)
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        return low - 1;
     }
 
     @Override
@@ -777,12 +787,16 @@ public class DynamicLayout extends Layout
     private static final int TOP = 1;
     private static final int DESCENT = 2;
     private static final int LINE_BREAK = 3;
+    /**
+     * 这一行之前有多少个真实行，和 START、TOP 一样在重排时用 adjustValuesBelow 整体调整
+     */
+    private static final int REAL_LINES = 4;
 //    private static final int COLUMNS_NORMAL = 3;
-    private static final int COLUMNS_NORMAL = 4;
+    private static final int COLUMNS_NORMAL = 5;
 
-    private static final int ELLIPSIS_START = 3;
-    private static final int ELLIPSIS_COUNT = 4;
-    private static final int COLUMNS_ELLIPSIZE = 5;
+    private static final int ELLIPSIS_START = 5;
+    private static final int ELLIPSIS_COUNT = 6;
+    private static final int COLUMNS_ELLIPSIZE = 7;
 
     private static final int START_MASK = 0x1FFFFFFF;
     private static final int DIR_SHIFT  = 30;
@@ -28,6 +28,10 @@ import com.jecelyin.editor.v2.Pref;
  */
 public class LayoutContext {
     public int lineNumber = 1;
+    /**
+     * 只显示文件的一部分时，行号要加上前面省略掉的行数
+     */
+    public int lineNumberOffset = 0;
     public Paint lineNumberPaint;
     public Paint linePaint;
     public Paint gutterBackgroundPaint;
@@ -42,4 +46,5 @@ public class LayoutContext {
     public boolean isShowWhiteSpace;
     public int whiteSpaceColor;
     public TextLineNumber textLineNumber = new TextLineNumber();
+    public SyntaxColorProvider syntaxColorProvider;
 }
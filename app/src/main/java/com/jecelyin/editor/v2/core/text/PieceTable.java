@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.editor.v2.core.text;
+
+import com.jecelyin.editor.v2.core.util.ArrayUtils;
+import com.jecelyin.editor.v2.core.util.GrowingArrayUtils;
+
+import java.util.Random;
+
+/**
+ * 片段表：原始文本只读不动，新输入的文本追加到 added 缓冲区，
+ * 文档由若干片段按顺序拼成。片段保存在按位置排序的 treap 中，插入和删除都是 O(log n)，
+ * 不会像间隙缓冲区那样在文档两端来回编辑时整块复制
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+final class PieceTable {
+    private final char[] original;
+    private char[] added;
+    private int addedLength;
+    private Node root;
+    private final Random random = new Random();
+
+    /**
+     * 连续的 charAt 通常落在同一个片段里，缓存一下上次找到的片段
+     */
+    private Node cacheNode;
+    private int cacheStart;
+
+    private Node splitLeft;
+    private Node splitRight;
+
+    private static final class Node {
+        final boolean isAdded;
+        final int start;
+        int length;
+        /**
+         * 整棵子树的字符数
+         */
+        int size;
+        final int priority;
+        Node left;
+        Node right;
+
+        Node(boolean isAdded, int start, int length, int priority) {
+            this.isAdded = isAdded;
+            this.start = start;
+            this.length = length;
+            this.size = length;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * @param text 直接引用，不会复制也不会修改
+     */
+    PieceTable(char[] text, int start, int length) {
+        original = text;
+        added = ArrayUtils.newUnpaddedCharArray(1024);
+        if (length > 0)
+            root = new Node(false, start, length, random.nextInt());
+    }
+
+    int length() {
+        return size(root);
+    }
+
+    char charAt(int where) {
+        Node node = cacheNode;
+        if (node == null || where < cacheStart || where >= cacheStart + node.length) {
+            node = findNode(where);
+        }
+        return bufferOf(node)[node.start + where - cacheStart];
+    }
+
+    void getChars(int start, int end, char[] dest, int destoff) {
+        while (start < end) {
+            Node node = cacheNode;
+            if (node == null || start < cacheStart || start >= cacheStart + node.length) {
+                node = findNode(start);
+            }
+            int offset = start - cacheStart;
+            int count = Math.min(node.length - offset, end - start);
+            System.arraycopy(bufferOf(node), node.start + offset, dest, destoff, count);
+            start += count;
+            destoff += count;
+        }
+    }
+
+    /**
+     * 用 cs[csStart, csEnd) 替换 [start, end)
+     */
+    void replace(int start, int end, CharSequence cs, int csStart, int csEnd) {
+        cacheNode = null;
+        int count = csEnd - csStart;
+        int addStart = addedLength;
+        if (count > 0) {
+            if (addedLength + count > added.length) {
+                char[] newAdded = ArrayUtils.newUnpaddedCharArray(GrowingArrayUtils.growSize(addedLength + count));
+                System.arraycopy(added, 0, newAdded, 0, addedLength);
+                added = newAdded;
+            }
+            TextUtils.getChars(cs, csStart, csEnd, added, addedLength);
+            addedLength += count;
+        }
+
+        if (end > start) {
+            split(root, end);
+            Node right = splitRight;
+            split(splitLeft, start);
+            root = merge(splitLeft, right);
+        }
+
+        if (count == 0)
+            return;
+        //连续输入时直接延长上一个片段
+        if (extend(root, start, count, addStart))
+            return;
+
+        split(root, start);
+        Node right = splitRight;
+        root = merge(merge(splitLeft, new Node(true, addStart, count, random.nextInt())), right);
+    }
+
+    private char[] bufferOf(Node node) {
+        return node.isAdded ? added : original;
+    }
+
+    private Node findNode(int where) {
+        Node node = root;
+        int base = 0;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (where < base + leftSize) {
+                node = node.left;
+            } else if (where < base + leftSize + node.length) {
+                cacheNode = node;
+                cacheStart = base + leftSize;
+                return node;
+            } else {
+                base += leftSize + node.length;
+                node = node.right;
+            }
+        }
+        throw new IndexOutOfBoundsException(where + " >= " + length());
+    }
+
+    private boolean extend(Node t, int pos, int count, int addStart) {
+        if (t == null)
+            return false;
+        int leftSize = size(t.left);
+        boolean extended;
+        if (pos <= leftSize) {
+            extended = extend(t.left, pos, count, addStart);
+        } else if (pos == leftSize + t.length) {
+            extended = t.isAdded && t.start + t.length == addStart;
+            if (extended)
+                t.length += count;
+        } else if (pos > leftSize + t.length) {
+            extended = extend(t.right, pos - leftSize - t.length, count, addStart);
+        } else {
+            extended = false;
+        }
+        if (extended)
+            t.size += count;
+        return extended;
+    }
+
+    /**
+     * 把 t 分成前 pos 个字符和剩下的部分，结果放在 splitLeft 和 splitRight
+     */
+    private void split(Node t, int pos) {
+        if (t == null) {
+            splitLeft = splitRight = null;
+            return;
+        }
+        int leftSize = size(t.left);
+        if (pos <= leftSize) {
+            split(t.left, pos);
+            t.left = splitRight;
+            update(t);
+            splitRight = t;
+        } else if (pos >= leftSize + t.length) {
+            split(t.right, pos - leftSize - t.length);
+            t.right = splitLeft;
+            update(t);
+            splitLeft = t;
+        } else {
+            int offset = pos - leftSize;
+            Node tail = new Node(t.isAdded, t.start + offset, t.length - offset, random.nextInt());
+            Node right = t.right;
+            t.length = offset;
+            t.right = null;
+            update(t);
+            Node merged = merge(tail, right);
+            splitLeft = t;
+            splitRight = merged;
+        }
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+
+    private static void update(Node t) {
+        t.size = size(t.left) + t.length + size(t.right);
+    }
+
+    private static int size(Node t) {
+        return t == null ? 0 : t.size;
+    }
+}
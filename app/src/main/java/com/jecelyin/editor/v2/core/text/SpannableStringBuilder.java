@@ -139,6 +139,25 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
 
     }
 
+    /**
+     * 改为使用片段表保存文本，适合非常大的文档：在文档各处编辑都不需要整块移动间隙。
+     * 切换后 {@link #mGapStart} 和 {@link #mGapLength} 只用作 span 位置的坐标，不再对应真实的数组
+     */
+    public void usePieceTable() {
+        if (mPieces != null)
+            return;
+        int len = length();
+        moveGapTo(len);
+        if (mGapLength < 1)
+            resizeFor(len);
+        mPieces = new PieceTable(mText, 0, len);
+        mText = null;
+    }
+
+    public boolean isPieceTable() {
+        return mPieces != null;
+    }
+
     public static SpannableStringBuilder valueOf(CharSequence source) {
         if (source instanceof SpannableStringBuilder) {
             return (SpannableStringBuilder) source;
@@ -158,6 +177,8 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
             throw new IndexOutOfBoundsException("charAt: " + where + " >= length " + len);
         }
 
+        if (mPieces != null)
+            return mPieces.charAt(where);
         if (where >= mGapStart)
             return mText[where + mGapLength];
         else
@@ -168,22 +189,38 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
      * Return the number of chars in the buffer.
      */
     public int length() {
+        if (mPieces != null)
+            return mPieces.length();
         return mText.length - mGapLength;
     }
 
+    /**
+     * 文本加上间隙的长度，片段表模式下间隙是虚拟的
+     */
+    private int capacity() {
+        if (mPieces != null)
+            return mPieces.length() + mGapLength;
+        return mText.length;
+    }
+
     private void resizeFor(int size) {
-        final int oldLength = mText.length;
+        final int oldLength = capacity();
         if (size + 1 <= oldLength) {
             return;
         }
 
-        char[] newText = ArrayUtils.newUnpaddedCharArray(GrowingArrayUtils.growSize(size));
-        System.arraycopy(mText, 0, newText, 0, mGapStart);
-        final int newLength = newText.length;
-        final int delta = newLength - oldLength;
-        final int after = oldLength - (mGapStart + mGapLength);
-        System.arraycopy(mText, oldLength - after, newText, newLength - after, after);
-        mText = newText;
+        final int delta;
+        if (mPieces != null) {
+            delta = size + 1 - oldLength + PIECE_TABLE_GAP_SIZE;
+        } else {
+            char[] newText = ArrayUtils.newUnpaddedCharArray(GrowingArrayUtils.growSize(size));
+            System.arraycopy(mText, 0, newText, 0, mGapStart);
+            final int newLength = newText.length;
+            delta = newLength - oldLength;
+            final int after = oldLength - (mGapStart + mGapLength);
+            System.arraycopy(mText, oldLength - after, newText, newLength - after, after);
+            mText = newText;
+        }
 
         mGapLength += delta;
         if (mGapLength < 1)
@@ -201,7 +238,9 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
 
         boolean atEnd = (where == length());
 
-        if (where < mGapStart) {
+        if (mPieces != null) {
+            //片段表模式下只需要调整span的坐标
+        } else if (where < mGapStart) {
             int overlap = mGapStart - where;
             System.arraycopy(mText, where, mText, mGapStart + mGapLength - overlap, overlap);
         } else /* where > mGapStart */ {
@@ -372,7 +411,7 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         moveGapTo(end);
 
         if (nbNewChars >= mGapLength) {
-            resizeFor(mText.length + nbNewChars - mGapLength);
+            resizeFor(capacity() + nbNewChars - mGapLength);
         }
 
         final boolean textIsRemoved = replacementLength == 0;
@@ -405,10 +444,14 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         if (mGapLength < 1)
             new Exception("mGapLength < 1").printStackTrace();
 
-        TextUtils.getChars(cs, csStart, csEnd, mText, start);
+        if (mPieces != null) {
+            mPieces.replace(start, end, cs, csStart, csEnd);
+        } else {
+            TextUtils.getChars(cs, csStart, csEnd, mText, start);
+        }
 
         if (replacedLength > 0) { // no need for span fixup on pure insertion
-            final boolean atEnd = (mGapStart + mGapLength == mText.length);
+            final boolean atEnd = (mGapStart + mGapLength == capacity());
 
             for (int i = 0; i < mSpanCount; i++) {
                 final int startFlag = (mSpanFlags[i] & START_MASK) >> START_SHIFT;
@@ -506,20 +549,20 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
     }
 
     private CharSequence autoIndent(int start) {
-        if (start < 0 || start >= mText.length)
+        if (start < 0 || start >= length())
             return "\n";
 
         char ch;
         //跳过\r
         for (; start >= 0; start--) {
-            ch = mText[start];
+            ch = charAt(start);
             if (ch != '\r')
                 break;
         }
 
         StringBuilder sb = new StringBuilder();
         for (int i = start; i >= 0; i--) {
-            ch = mText[i];
+            ch = charAt(i);
             if (ch == '\n' || ch == '\r') {
                 break;
             } else if (ch == ' ' || ch == '\t') {
@@ -1034,7 +1077,9 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
     public void getChars(int start, int end, char[] dest, int destoff) {
         checkRange("getChars", start, end);
 
-        if (end <= mGapStart) {
+        if (mPieces != null) {
+            mPieces.getChars(start, end, dest, destoff);
+        } else if (end <= mGapStart) {
             System.arraycopy(mText, start, dest, destoff, end - start);
         } else if (start >= mGapStart) {
             System.arraycopy(mText, start + mGapLength, dest, destoff, end - start);
@@ -1046,6 +1091,30 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         }
     }
 
+    /**
+     * 不复制，直接返回 [start, end) 在内部数组 {@link #getRawChars()} 中的开始位置
+     *
+     * @return [start, end) 跨过了间隙或者使用片段表保存时返回 -1，这时只能用 {@link #getChars} 复制
+     */
+    public int getRawOffset(int start, int end) {
+        checkRange("getRawOffset", start, end);
+
+        if (mPieces != null)
+            return -1;
+        if (end <= mGapStart)
+            return start;
+        if (start >= mGapStart)
+            return start + mGapLength;
+        return -1;
+    }
+
+    /**
+     * 内部的间隙缓冲区，只能读不能改，并且文本被修改后就不再有效
+     */
+    public char[] getRawChars() {
+        return mText;
+    }
+
     /**
      * Return a String containing a copy of the chars in this buffer.
      */
@@ -1162,6 +1231,10 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
     }
 
     public void dump() { // XXX
+        if (mPieces != null) {
+            System.out.println(toString());
+            return;
+        }
         for (int i = 0; i < mGapStart; i++) {
             System.out.print('|');
             System.out.print(' ');
@@ -1233,9 +1306,9 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
     public void drawText(Canvas c, int start, int end, float x, float y, Paint p) {
         checkRange("drawText", start, end);
 
-        if (end <= mGapStart) {
+        if (mPieces == null && end <= mGapStart) {
             c.drawText(mText, start, end - start, x, y, p);
-        } else if (start >= mGapStart) {
+        } else if (mPieces == null && start >= mGapStart) {
             c.drawText(mText, start + mGapLength, end - start, x, y, p);
         } else {
             char[] buf = TextUtils.obtain(end - start);
@@ -1255,9 +1328,9 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
 
         int contextLen = contextEnd - contextStart;
         int len = end - start;
-        if (contextEnd <= mGapStart) {
+        if (mPieces == null && contextEnd <= mGapStart) {
             c.drawTextRun(mText, start, len, contextStart, contextLen, x, y, flags, p);
-        } else if (contextStart >= mGapStart) {
+        } else if (mPieces == null && contextStart >= mGapStart) {
             c.drawTextRun(mText, start + mGapLength, len, contextStart + mGapLength,
                     contextLen, x, y, flags, p);
         } else {
@@ -1278,10 +1351,10 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
 
         int contextLen = contextEnd - contextStart;
         int len = end - start;
-        if (contextEnd <= mGapStart) {
+        if (mPieces == null && contextEnd <= mGapStart) {
 //            c.drawTextRun(mText, start, len, contextStart, contextLen, x, y, isRtl, p);
             CanvasCompat.drawTextRun(c, mText, start, len, contextStart, contextLen, x, y, isRtl, p);
-        } else if (contextStart >= mGapStart) {
+        } else if (mPieces == null && contextStart >= mGapStart) {
 //            c.drawTextRun(mText, start + mGapLength, len, contextStart + mGapLength,
 //                    contextLen, x, y, isRtl, p);
             CanvasCompat.drawTextRun(c, mText, start + mGapLength, len, contextStart + mGapLength,
@@ -1304,9 +1377,9 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
 
         float ret;
 
-        if (end <= mGapStart) {
+        if (mPieces == null && end <= mGapStart) {
             ret = p.measureText(mText, start, end - start);
-        } else if (start >= mGapStart) {
+        } else if (mPieces == null && start >= mGapStart) {
             ret = p.measureText(mText, start + mGapLength, end - start);
         } else {
             char[] buf = TextUtils.obtain(end - start);
@@ -1328,9 +1401,9 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
 
         int ret;
 
-        if (end <= mGapStart) {
+        if (mPieces == null && end <= mGapStart) {
             ret = p.getTextWidths(mText, start, end - start, widths);
-        } else if (start >= mGapStart) {
+        } else if (mPieces == null && start >= mGapStart) {
             ret = p.getTextWidths(mText, start + mGapLength, end - start, widths);
         } else {
             char[] buf = TextUtils.obtain(end - start);
@@ -1353,10 +1426,10 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         int contextLen = contextEnd - contextStart;
         int len = end - start;
 
-        if (end <= mGapStart) {
+        if (mPieces == null && end <= mGapStart) {
             ret = p.getTextRunAdvances(mText, start, len, contextStart, contextLen,
                     flags, advances, advancesPos);
-        } else if (start >= mGapStart) {
+        } else if (mPieces == null && start >= mGapStart) {
             ret = p.getTextRunAdvances(mText, start + mGapLength, len,
                     contextStart + mGapLength, contextLen, flags, advances, advancesPos);
         } else {
@@ -1382,10 +1455,10 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         int contextLen = contextEnd - contextStart;
         int len = end - start;
 
-        if (end <= mGapStart) {
+        if (mPieces == null && end <= mGapStart) {
             ret = p.getTextRunAdvances(mText, start, len, contextStart, contextLen,
                     isRtl, advances, advancesPos);
-        } else if (start >= mGapStart) {
+        } else if (mPieces == null && start >= mGapStart) {
             ret = p.getTextRunAdvances(mText, start + mGapLength, len,
                     contextStart + mGapLength, contextLen, isRtl, advances, advancesPos);
         } else {
@@ -1431,10 +1504,10 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
         int ret;
 
         int contextLen = contextEnd - contextStart;
-        if (contextEnd <= mGapStart) {
+        if (mPieces == null && contextEnd <= mGapStart) {
             ret = p.getTextRunCursor(mText, contextStart, contextLen,
                     dir, offset, cursorOpt);
-        } else if (contextStart >= mGapStart) {
+        } else if (mPieces == null && contextStart >= mGapStart) {
             ret = p.getTextRunCursor(mText, contextStart + mGapLength, contextLen,
                     dir, offset + mGapLength, cursorOpt) - mGapLength;
         } else {
@@ -1515,6 +1588,7 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
     private InputFilter[] mFilters = NO_FILTERS;
 
     private char[] mText;
+    private PieceTable mPieces;
     private int mGapStart;
     private int mGapLength;
 
@@ -1541,6 +1615,8 @@ public class SpannableStringBuilder implements CharSequence, GetChars, Spannable
     private static final int SPAN_END_AT_END = 0x8000;
     private static final int SPAN_START_END_MASK = 0xF000;
 
+    private static final int PIECE_TABLE_GAP_SIZE = 1024;
+
     /**
      * 注意不能直接返回mText,因为会涉及到字符改变后会移动,比如"abc"删除了b后,可能变成了"acb"
      * @return
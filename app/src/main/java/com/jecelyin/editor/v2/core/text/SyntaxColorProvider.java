@@ -16,19 +16,28 @@
  * limitations under the License.
  */
 
-package com.jecelyin.editor.v2.highlight;
+package com.jecelyin.editor.v2.core.text;
 
 /**
+ * 绘制时提供语法高亮的颜色，代替在文本中保存大量的 ForegroundColorSpan
+ *
+ * 每一行的颜色段保存在一个 int[] 中，每3个 int 为一段：相对行首的开始位置、长度、样式id，
+ * 各段按开始位置排序并且互不重叠
+ *
  * @author Jecelyin Peng <jecelyin@gmail.com>
  */
-public class HighlightInfo {
-    public int startOffset;
-    public int endOffset;
-    public int color;
+public interface SyntaxColorProvider {
+    /**
+     * @return 包含 offset 的行（以换行符分隔的行，不是自动换行后的行）
+     */
+    int getLineForOffset(int offset);
+
+    int getLineStart(int line);
+
+    /**
+     * @return 这一行的颜色段，没有时返回 null
+     */
+    int[] getLineRuns(int line);
 
-    public HighlightInfo(int startOffset, int endOffset, int color) {
-        this.startOffset = startOffset;
-        this.endOffset = endOffset;
-        this.color = color;
-    }
+    int getColor(int styleId);
 }
@@ -63,6 +63,11 @@ class TextLine {
     private char[] mChars;
     private boolean mCharsValid;
     private Spanned mSpanned;
+    /**
+     * 这一行所在段落的语法高亮颜色段，见 {@link SyntaxColorProvider}
+     */
+    private int[] mColorRuns;
+    private int mColorRunsStart;
     private final TextPaint mWorkPaint = new TextPaint();
     private final SpanSet<MetricAffectingSpan> mMetricAffectingSpanSpanSet =
             new SpanSet<MetricAffectingSpan>(MetricAffectingSpan.class);
@@ -109,6 +114,7 @@ class TextLine {
         tl.mDirections = null;
         tl.layoutContext = null;
         tl.mSpanned = null;
+        tl.mColorRuns = null;
         tl.mTabs = null;
         tl.mChars = null;
 
@@ -155,6 +161,14 @@ class TextLine {
         mHasTabs = hasTabs;
         mSpanned = null;
 
+        mColorRuns = null;
+        SyntaxColorProvider colorProvider = layoutContext.syntaxColorProvider;
+        if (colorProvider != null && text instanceof Spanned) {
+            int line = colorProvider.getLineForOffset(start);
+            mColorRuns = colorProvider.getLineRuns(line);
+            mColorRunsStart = colorProvider.getLineStart(line);
+        }
+
         boolean hasReplacement = false;
         if (text instanceof Spanned) {
             mSpanned = (Spanned) text;
@@ -982,24 +996,65 @@ class TextLine {
                 jnext = mCharacterStyleSpanSet.getNextTransition(mStart + j, mStart + mlimit) -
                         mStart;
 
-                wp.set(mPaint);
-                for (int k = 0; k < mCharacterStyleSpanSet.numberOfSpans; k++) {
-                    // Intentionally using >= and <= as explained above
-                    if ((mCharacterStyleSpanSet.spanStarts[k] >= mStart + jnext) ||
-                            (mCharacterStyleSpanSet.spanEnds[k] <= mStart + j)) continue;
+                //jec+: 语法高亮的颜色垫在最底下，其它 span 可以覆盖它
+                for (int n = j, nnext; n < jnext; n = nnext) {
+                    wp.set(mPaint);
+                    nnext = jnext;
+                    if (mColorRuns != null && c != null) {
+                        nnext = applySyntaxColor(wp, n, jnext);
+                    }
 
-                    CharacterStyle span = mCharacterStyleSpanSet.spans[k];
-                    span.updateDrawState(wp);
-                }
+                    for (int k = 0; k < mCharacterStyleSpanSet.numberOfSpans; k++) {
+                        // Intentionally using >= and <= as explained above
+                        if ((mCharacterStyleSpanSet.spanStarts[k] >= mStart + jnext) ||
+                                (mCharacterStyleSpanSet.spanEnds[k] <= mStart + j)) continue;
+
+                        CharacterStyle span = mCharacterStyleSpanSet.spans[k];
+                        span.updateDrawState(wp);
+                    }
 
-                x += handleText(wp, j, jnext, i, inext, runIsRtl, c, x,
-                        top, y, bottom, fmi, needWidth || jnext < measureLimit);
+                    x += handleText(wp, n, nnext, i, inext, runIsRtl, c, x,
+                            top, y, bottom, fmi, needWidth || nnext < measureLimit);
+                }
+                //end jec+
             }
         }
 
         return x - originalX;
     }
 
+    /**
+     * 如果 start 处在某个语法高亮颜色段中，就用它的颜色设置画笔
+     *
+     * @param start the line-relative start
+     * @param limit the line-relative limit
+     * @return 颜色不变的范围的结束位置，不超过 limit
+     */
+    private int applySyntaxColor(TextPaint wp, int start, int limit) {
+        int[] runs = mColorRuns;
+        int pos = mStart + start - mColorRunsStart;
+
+        //找第一个结束位置在 pos 之后的颜色段
+        int low = 0, high = runs.length / 3;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (runs[mid * 3] + runs[mid * 3 + 1] <= pos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == runs.length / 3)
+            return limit;
+
+        int runStart = runs[low * 3];
+        if (runStart > pos)
+            return Math.min(limit, start + runStart - pos);
+
+        wp.setColor(layoutContext.syntaxColorProvider.getColor(runs[low * 3 + 2]));
+        return Math.min(limit, start + runStart + runs[low * 3 + 1] - pos);
+    }
+
     /**
      * Render a text run with the set-up paint.
      *
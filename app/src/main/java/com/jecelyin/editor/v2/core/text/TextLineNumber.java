@@ -18,35 +18,61 @@
 
 package com.jecelyin.editor.v2.core.text;
 
-import java.util.ArrayList;
-import java.util.List;
+import android.graphics.Canvas;
+import android.graphics.Paint;
 
 /**
+ * 当前帧可见的行号和位置，每帧重复使用同一组数组，滚动时不产生新对象
+ *
  * @author Jecelyin Peng <jecelyin@gmail.com>
  */
 
 public class TextLineNumber {
-    private List<LineInfo> lineInfoList = new ArrayList<>();
-
-    public static class LineInfo {
-        public String text;
-        public int y;
+    private int[] numbers = new int[64];
+    private int[] ys = new int[64];
+    private int count;
+    /**
+     * 画行号时在这里把数字转成字符，int 最多 10 位
+     */
+    private final char[] digits = new char[10];
 
-        public LineInfo(String text, int y) {
-            this.text = text;
-            this.y = y;
-        }
+    public void clear() {
+        count = 0;
     }
 
-    public void clear() {
-        lineInfoList.clear();
+    public void addLine(int number, int y) {
+        if (count == numbers.length) {
+            int[] newNumbers = new int[count * 2];
+            int[] newYs = new int[count * 2];
+            System.arraycopy(numbers, 0, newNumbers, 0, count);
+            System.arraycopy(ys, 0, newYs, 0, count);
+            numbers = newNumbers;
+            ys = newYs;
+        }
+        numbers[count] = number;
+        ys[count] = y;
+        count++;
     }
 
-    public void addLine(String text, int y) {
-        lineInfoList.add(new LineInfo(text, y));
+    /**
+     * 按画笔的对齐方式在 x 处画出所有行号
+     */
+    public void draw(Canvas canvas, float x, Paint paint) {
+        for (int i = 0; i < count; i++) {
+            int start = toChars(numbers[i]);
+            canvas.drawText(digits, start, digits.length - start, x, ys[i], paint);
+        }
     }
 
-    public List<LineInfo> getLines() {
-        return lineInfoList;
+    /**
+     * @return 数字在 digits 中的起始位置，数字靠右存放
+     */
+    private int toChars(int number) {
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+        return pos;
     }
 }
@@ -44,7 +44,6 @@ import android.text.InputType;
 import android.text.ParcelableSpan;
 import android.text.SpanWatcher;
 import android.text.Spannable;
-import android.text.SpannableString;
 import android.text.Spanned;
 import android.text.method.KeyListener;
 import android.text.method.MetaKeyKeyListener;
@@ -92,6 +91,7 @@ import com.jecelyin.editor.v2.R;
 import com.jecelyin.editor.v2.core.content.UndoManager;
 import com.jecelyin.editor.v2.core.content.UndoOperation;
 import com.jecelyin.editor.v2.core.content.UndoOwner;
+import com.jecelyin.editor.v2.core.content.UndoSpillFile;
 import com.jecelyin.editor.v2.core.text.Layout;
 import com.jecelyin.editor.v2.core.text.Selection;
 import com.jecelyin.editor.v2.core.text.SpannableStringBuilder;
@@ -101,6 +101,9 @@ import com.jecelyin.editor.v2.core.text.method.WordIterator;
 import com.jecelyin.editor.v2.core.view.InputMethodManagerCompat;
 import com.jecelyin.editor.v2.core.view.ViewConfigurationCompat;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.text.BreakIterator;
 import java.util.Arrays;
@@ -4249,11 +4252,12 @@ public class Editor {
                 } else {
                     // The current operation is a delete...  can we delete more?
                     if (start == end && dend == op.mRangeStart-1) {
-                        SpannableStringBuilder str;
-                        if (op.mOldText instanceof SpannableString) {
-                            str = (SpannableStringBuilder)op.mOldText;
+                        //连续退格删除的文字都往同一个 StringBuilder 前面插，不带 span
+                        StringBuilder str;
+                        if (op.mOldText instanceof StringBuilder) {
+                            str = (StringBuilder)op.mOldText;
                         } else {
-                            str = new SpannableStringBuilder(op.mOldText);
+                            str = new StringBuilder(op.mOldText);
                         }
                         str.insert(0, dest, dstart, dend);
                         op.mRangeStart = dstart;
@@ -4281,7 +4285,8 @@ public class Editor {
                 op.mRangeEnd = dstart;
             }
             if (dstart < dend) {
-                op.mOldText = dest.subSequence(dstart, dend);
+                //撤销只需要文字，不保留 span，省内存
+                op.mOldText = TextUtils.substring(dest, dstart, dend);
             }
             if (DEBUG_UNDO) Log.d(TAG, "*** adding new op, range=(" + op.mRangeStart
                     + "-" + op.mRangeEnd + "), oldText=" + op.mOldText);
@@ -4292,8 +4297,19 @@ public class Editor {
     }
 
     public static class TextModifyOperation extends UndoOperation<TextView> {
+        /**
+         * 超过这个字符数的旧文字在超出撤销内存预算时会移到临时文件
+         */
+        private static final int SPILL_MIN_LENGTH = 4 * 1024;
+
         int mRangeStart, mRangeEnd;
         CharSequence mOldText;
+        /**
+         * 不为 null 时 mOldText 存在这个文件里
+         */
+        private UndoSpillFile mSpillFile;
+        private long mSpillOffset;
+        private int mSpillLength;
 
         public TextModifyOperation(UndoOwner owner) {
             super(owner);
@@ -4310,6 +4326,72 @@ public class Editor {
         public void commit() {
         }
 
+        @Override
+        public int getMemorySize() {
+            return 32 + (mOldText == null ? 0 : mOldText.length() * 2);
+        }
+
+        @Override
+        public int spill(UndoSpillFile file) {
+            if (mOldText == null || mOldText.length() < SPILL_MIN_LENGTH)
+                return 0;
+            try {
+                mSpillOffset = file.write(mOldText);
+            } catch (IOException e) {
+                L.e(e);
+                return 0;
+            }
+            mSpillFile = file;
+            mSpillLength = mOldText.length();
+            mOldText = null;
+            return mSpillLength * 2;
+        }
+
+        private boolean loadOldText() {
+            if (mSpillFile == null)
+                return true;
+            try {
+                mOldText = mSpillFile.read(mSpillOffset, mSpillLength);
+            } catch (IOException e) {
+                L.e(e);
+                return false;
+            }
+            //撤销后这段文字会被换掉，文件里的这份就不再使用了
+            mSpillFile.free(mSpillLength);
+            mSpillFile = null;
+            return true;
+        }
+
+        @Override
+        public void respill(UndoSpillFile file) {
+            if (mSpillFile == null || mSpillFile == file)
+                return;
+            String text;
+            try {
+                text = mSpillFile.read(mSpillOffset, mSpillLength);
+            } catch (IOException e) {
+                L.e(e);
+                return;
+            }
+            mSpillFile.free(mSpillLength);
+            mSpillFile = null;
+            try {
+                mSpillOffset = file.write(text);
+                mSpillFile = file;
+            } catch (IOException e) {
+                L.e(e);
+                mOldText = text;
+            }
+        }
+
+        @Override
+        public void discard() {
+            if (mSpillFile == null)
+                return;
+            mSpillFile.free(mSpillLength);
+            mSpillFile = null;
+        }
+
         @Override
         public void undo() {
             swapText();
@@ -4331,10 +4413,12 @@ public class Editor {
                 L.e("Undo/Redo swapText: range=(%d - %d), text length=%d", mRangeStart, mRangeEnd, editable.length());
                 return;
             }
+            if (!loadOldText())
+                return;
             if (mRangeStart >= mRangeEnd) {
                 curText = null;
             } else {
-                curText = editable.subSequence(mRangeStart, mRangeEnd);
+                curText = TextUtils.substring(editable, mRangeStart, mRangeEnd);
             }
             if (DEBUG_UNDO) {
                 Log.d(TAG, "Swap: range=(" + mRangeStart + "-" + mRangeEnd
@@ -4351,8 +4435,61 @@ public class Editor {
             mOldText = curText;
         }
 
+        @Override
+        public Persistable snapshot() {
+            final int rangeStart = mRangeStart;
+            final int rangeEnd = mRangeEnd;
+            final String oldText = mOldText == null ? null : mOldText.toString();
+            final UndoSpillFile spillFile = mSpillFile;
+            final long spillOffset = mSpillOffset;
+            final int spillLength = mSpillLength;
+            //临时文件可能在写历史之前被换掉，先占住，写完再释放
+            if (spillFile != null)
+                spillFile.retain();
+            return new Persistable() {
+                @Override
+                public void write(DataOutputStream out) throws IOException {
+                    //移到临时文件的文字在写历史的线程中读回来
+                    String text = spillFile != null ? spillFile.read(spillOffset, spillLength) : oldText;
+                    out.writeInt(rangeStart);
+                    out.writeInt(rangeEnd);
+                    if (text == null) {
+                        out.writeInt(-1);
+                    } else {
+                        out.writeInt(text.length());
+                        out.writeChars(text);
+                    }
+                }
+
+                @Override
+                public void release() {
+                    if (spillFile != null)
+                        spillFile.release();
+                }
+            };
+        }
+
+        public static final UndoManager.OperationReader READER = new UndoManager.OperationReader() {
+            @Override
+            public UndoOperation<?> read(UndoOwner owner, DataInputStream in) throws IOException {
+                TextModifyOperation op = new TextModifyOperation(owner);
+                op.mRangeStart = in.readInt();
+                op.mRangeEnd = in.readInt();
+                int length = in.readInt();
+                if (length >= 0) {
+                    char[] chars = new char[length];
+                    for (int i = 0; i < length; i++) {
+                        chars[i] = in.readChar();
+                    }
+                    op.mOldText = new String(chars);
+                }
+                return op;
+            }
+        };
+
         @Override
         public void writeToParcel(Parcel dest, int flags) {
+            loadOldText();
             dest.writeInt(mRangeStart);
             dest.writeInt(mRangeEnd);
             TextUtils.writeToParcel(mOldText, dest, flags);
@@ -41,11 +41,15 @@ import com.jecelyin.editor.v2.core.text.method.ArrowKeyMovementMethod;
 import com.jecelyin.editor.v2.core.text.method.MovementMethod;
 import com.jecelyin.editor.v2.core.view.InputMethodManagerCompat;
 
+import java.io.File;
+import java.util.ArrayList;
+
 /**
  * @author Jecelyin Peng <jecelyin@gmail.com>
  */
 public class JecEditText extends TextView {
     private OnEditorSizeChangedListener onEditorSizeChangedListener;
+    private ArrayList<OnEditorScrollChangedListener> onEditorScrollChangedListeners;
     private UndoManager undoManager;
     private EditorHelper editorHelper;
 
@@ -155,6 +159,10 @@ public class JecEditText extends TextView {
         void onEditorSizeChanged(int w, int h, int oldw, int oldh);
     }
 
+    public static interface OnEditorScrollChangedListener {
+        void onEditorScrollChanged(int vert, int oldVert);
+    }
+
     public JecEditText(Context context) {
         this(context, null);
     }
@@ -285,6 +293,17 @@ public class JecEditText extends TextView {
         this.onEditorSizeChangedListener = onEditorSizeChangedListener;
     }
 
+    public void addOnEditorScrollChangedListener(OnEditorScrollChangedListener listener) {
+        if (onEditorScrollChangedListeners == null)
+            onEditorScrollChangedListeners = new ArrayList<>();
+        onEditorScrollChangedListeners.add(listener);
+    }
+
+    public void removeOnEditorScrollChangedListener(OnEditorScrollChangedListener listener) {
+        if (onEditorScrollChangedListeners != null)
+            onEditorScrollChangedListeners.remove(listener);
+    }
+
     public void hideSoftInput() {
         InputMethodManager imm = InputMethodManagerCompat.peekInstance();
         imm.hideSoftInputFromWindow(getWindowToken(), InputMethodManager.HIDE_NOT_ALWAYS);
@@ -311,6 +330,7 @@ public class JecEditText extends TextView {
 
         editorHelper = new EditorHelper(this);
         undoManager = new UndoManager();
+        undoManager.setSpillDirectory(getContext().getCacheDir());
         setUndoManager(undoManager, "undo");
         if (mEditor != null) {
             final boolean undoFilter = mEditor.mUndoInputFilter != null;
@@ -351,6 +371,20 @@ public class JecEditText extends TextView {
         return undoManager.countUndos(null) > 0;
     }
 
+    /**
+     * 把撤销历史写到文件，界面重建或者进程被杀后可以用 {@link #restoreUndoHistory(File)} 恢复
+     */
+    public boolean saveUndoHistory(File file) {
+        return undoManager.saveHistory(file);
+    }
+
+    /**
+     * 要在恢复文本之后调用，历史中的操作是相对于保存时的文本的
+     */
+    public boolean restoreUndoHistory(File file) {
+        return undoManager.restoreHistory(file, mEditor.mUndoOwner, Editor.TextModifyOperation.READER);
+    }
+
     public boolean copy() {
         return canCopy() && onTextContextMenuItem(ID_COPY);
     }
@@ -719,6 +753,12 @@ public class JecEditText extends TextView {
             int h2 = getLayout().getHeight();
             mFastScroller.onScroll(this, vert, h, h2);
         }
+
+        if(onEditorScrollChangedListeners != null && vert != oldVert) {
+            for (int i = onEditorScrollChangedListeners.size() - 1; i >= 0; i--) {
+                onEditorScrollChangedListeners.get(i).onEditorScrollChanged(vert, oldVert);
+            }
+        }
     }
 
     private void initVelocityTrackerIfNotExists() {
@@ -109,8 +109,8 @@ import com.jecelyin.editor.v2.core.text.Selection;
 import com.jecelyin.editor.v2.core.text.SpannableStringBuilder;
 import com.jecelyin.editor.v2.core.text.StaticLayout;
 import com.jecelyin.editor.v2.core.text.TextDirectionHeuristic;
+import com.jecelyin.editor.v2.core.text.SyntaxColorProvider;
 import com.jecelyin.editor.v2.core.text.TextDirectionHeuristics;
-import com.jecelyin.editor.v2.core.text.TextLineNumber;
 import com.jecelyin.editor.v2.core.text.TextUtils;
 import com.jecelyin.editor.v2.core.text.method.ArrowKeyMovementMethod;
 import com.jecelyin.editor.v2.core.text.method.LinkMovementMethod;
@@ -4016,7 +4016,13 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
                 needEditableForNotification) {
             createEditorIfNeeded();
 //            Editable t = mEditableFactory.newEditable(text); //jec-
-            Editable t = new SpannableStringBuilder(text);
+            Editable t;
+            if (text instanceof SpannableStringBuilder && !isAttached((SpannableStringBuilder) text)) {
+                //刚读取的文件内容不要再复制一份，片段表模式也要保留下来
+                t = (SpannableStringBuilder) text;
+            } else {
+                t = new SpannableStringBuilder(text);
+            }
             text = t;
             setFilters(t, mFilters);
             InputMethodManager imm = InputMethodManagerCompat.peekInstance();
@@ -9676,6 +9682,26 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
         Layout.TAB_INCREMENT = (int) tabWidth;
     }
 
+    /**
+     * @return 是否已经是某个TextView的文本（带有TextWatcher）
+     */
+    private static boolean isAttached(SpannableStringBuilder text) {
+        return text.getSpans(0, text.length(), TextWatcher.class).length > 0
+                || text.getSpans(0, text.length(), SpanWatcher.class).length > 0;
+    }
+
+    public void setSyntaxColorProvider(SyntaxColorProvider provider) {
+        layoutContext.syntaxColorProvider = provider;
+        invalidate();
+    }
+
+    public void setLineNumberOffset(int lineNumberOffset) {
+        if (layoutContext.lineNumberOffset == lineNumberOffset)
+            return;
+        layoutContext.lineNumberOffset = lineNumberOffset;
+        invalidate();
+    }
+
     public void setLineNumber(int lineNumber) {
         layoutContext.lineNumber = lineNumber;
 
@@ -9703,15 +9729,7 @@ public class TextView extends View implements ViewTreeObserver.OnPreDrawListener
         canvas.drawRect(getScrollX(), getScrollY(), width, height, layoutContext.gutterBackgroundPaint);
         canvas.drawLine(width, getScrollY(), width, height, layoutContext.linePaint);
 
-        List<TextLineNumber.LineInfo> lines = layoutContext.textLineNumber.getLines();
-        for (TextLineNumber.LineInfo line : lines) {
-//            canvas.restore();
-//            canvas.translate(layoutContext.scrollX, 0);
-            canvas.drawText(line.text, layoutContext.lineNumberX + layoutContext.scrollX, line.y, layoutContext.lineNumberPaint);
-//            canvas.translate(-layoutContext.scrollX, 0);
-//            canvas.save();
-//            canvas.translate(layoutContext.translateX, layoutContext.translateY);
-        }
+        layoutContext.textLineNumber.draw(canvas, layoutContext.lineNumberX + layoutContext.scrollX, layoutContext.lineNumberPaint);
     }
 
     public int getMaxScrollY() {
@@ -46,6 +46,10 @@ public class Buffer {
     private Editable editable;
     private final IntegerArray integerArray;
     private Mode mode;
+    /**
+     * 文本跨过间隙时用来复制的数组
+     */
+    private char[] copyBuffer;
 
     public Buffer(Context context) {
         this.context = context;
@@ -73,6 +77,10 @@ public class Buffer {
         return mode;
     }
 
+    public TokenMarker getTokenMarker() {
+        return tokenMarker;
+    }
+
     public boolean isCanHighlight() {
         return mode != null && tokenMarker != null;
     }
@@ -81,6 +89,29 @@ public class Buffer {
         return editable.length();
     }
 
+    public Editable getEditable() {
+        return editable;
+    }
+
+    public void getChars(int start, int end, char[] dest, int destoff) {
+        editable.getChars(start, end, dest, destoff);
+    }
+
+    /**
+     * @return [start, end) 在 {@link #getRawChars()} 中的开始位置，跨过间隙时返回 -1
+     * @see SpannableStringBuilder#getRawOffset(int, int)
+     */
+    public int getRawOffset(int start, int end) {
+        return ((SpannableStringBuilder) editable).getRawOffset(start, end);
+    }
+
+    /**
+     * 编辑器的间隙缓冲区，只能读，文本修改后就不再有效
+     */
+    public char[] getRawChars() {
+        return ((SpannableStringBuilder) editable).getRawChars();
+    }
+
     /**
      * Returns the specified line in a <code>Segment</code>.<p>
      * <p/>
@@ -138,36 +169,27 @@ public class Buffer {
      * Using a <classname>Segment</classname> is generally more
      * efficient than using a <classname>String</classname> because it
      * results in less memory allocation and array copying.<p>
+     * <p/>
+     * 直接引用编辑器间隙缓冲区里的字符，只有跨过间隙时才复制到可重复使用的数组中，
+     * 所以得到的 Segment 在文本修改或者下一次调用前有效
      *
      * @param start The start offset
      * @param len   The number of characters to get
      * @param seg   The segment to copy the text to
      */
     private void getTextByContentManager(int start, int len, Segment seg) {
-//        if (start >= gapStart) {
-//            seg.array = text;
-//            seg.offset = start + gapLength();
-//            seg.count = len;
-//        } else if (start + len <= gapStart) {
-//            seg.array = text;
-//            seg.offset = start;
-//            seg.count = len;
-//        } else {
-//            seg.array = new char[len];
-//
-//            // copy text before gap
-//            System.arraycopy(text, start, seg.array, 0, gapStart - start);
-//
-//            // copy text after gap
-//            System.arraycopy(text, gapEnd(), seg.array, gapStart - start,
-//                    len + start - gapStart);
-//
-//            seg.offset = 0;
-//            seg.count = len;
-//        }
-        char[] dest = new char[len];
-        editable.getChars(start, start+len, dest, 0);
-        seg.array = dest;
+        int offset = getRawOffset(start, start + len);
+        if (offset >= 0) {
+            seg.array = getRawChars();
+            seg.offset = offset;
+            seg.count = len;
+            return;
+        }
+
+        if (copyBuffer == null || copyBuffer.length < len)
+            copyBuffer = new char[Math.max(len, 256)];
+        editable.getChars(start, start + len, copyBuffer, 0);
+        seg.array = copyBuffer;
         seg.offset = 0;
         seg.count = len;
     } //}}}
@@ -333,6 +355,41 @@ public class Buffer {
         contentInserted(offset, len, integerArray);
     } //}}}
 
+    /**
+     * 文本已经插入到 editable 中，直接在里面找换行符，不用再复制一份
+     *
+     * @param offset 插入的位置
+     * @param length 插入的长度
+     */
+    public void insert(int offset, int length) {
+        if (length == 0)
+            return;
+
+        if (offset < 0 || offset + length > editable.length())
+            throw new ArrayIndexOutOfBoundsException(offset);
+
+        integerArray.clear();
+
+        char c;
+        int rawOffset = getRawOffset(offset, offset + length);
+        if (rawOffset >= 0) {
+            char[] chars = getRawChars();
+            for (int i = 0; i < length; i++) {
+                c = chars[rawOffset + i];
+                if (c == '\r' || c == '\n')
+                    integerArray.add(i + 1);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                c = editable.charAt(offset + i);
+                if (c == '\r' || c == '\n')
+                    integerArray.add(i + 1);
+            }
+        }
+
+        contentInserted(offset, length, integerArray);
+    }
+
     /**
      * Removes the specified rang efrom the buffer.
      * @param offset The start offset
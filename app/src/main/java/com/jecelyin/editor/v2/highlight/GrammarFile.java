@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.editor.v2.highlight;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 读取 tools 模块里 XML2Bin 生成的二进制语法文件（格式见 GrammarWriter）。
+ * 文件不压缩地放在 assets 中，直接 mmap 后按位置读取，
+ * 字符串在第一次用到时才解码，不用为每个元素创建属性表
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+class GrammarFile {
+    private final static int MAGIC = 0x39324732; //92G2
+    private final static int HEADER_SIZE = 6 * 4;
+    private final static int NODE_SIZE = 7 * 4;
+
+    private final ByteBuffer buffer;
+    private final String[] strings;
+    private final int stringIndexOffset;
+    private final int charsOffset;
+    private final int nodesOffset;
+    private final int attrsOffset;
+    private final int dataOffset;
+    private final int nodeCount;
+
+    GrammarFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Invalid grammar file");
+        int stringCount = buffer.getInt(4);
+        nodeCount = buffer.getInt(8);
+        int attrCount = buffer.getInt(12);
+        int charCount = buffer.getInt(16);
+        int dataLength = buffer.getInt(20);
+
+        strings = new String[stringCount];
+        stringIndexOffset = HEADER_SIZE;
+        charsOffset = stringIndexOffset + (stringCount + 1) * 4;
+        nodesOffset = charsOffset + charCount * 2;
+        attrsOffset = nodesOffset + nodeCount * NODE_SIZE;
+        dataOffset = attrsOffset + attrCount * 8;
+        if (dataOffset + dataLength != buffer.capacity())
+            throw new IOException("Invalid grammar file size: " + buffer.capacity());
+    }
+
+    static GrammarFile open(AssetManager assets, String path) throws IOException {
+        AssetFileDescriptor fd = assets.openFd(path);
+        FileInputStream in = null;
+        try {
+            in = fd.createInputStream();
+            return new GrammarFile(in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    fd.getStartOffset(), fd.getLength()));
+        } finally {
+            //映射后关闭文件也可以继续访问
+            if (in != null)
+                in.close();
+            else
+                fd.close();
+        }
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    String getTag(int node) {
+        return getString(nodeField(node, 0));
+    }
+
+    /**
+     * @return 没有文本时返回 null
+     */
+    String getText(int node) {
+        int text = nodeField(node, 1);
+        return text < 0 ? null : getString(text);
+    }
+
+    /**
+     * @return 没有这个属性时返回 null
+     */
+    String getAttribute(int node, String name) {
+        int attr = attrsOffset + nodeField(node, 2) * 8;
+        int end = attr + nodeField(node, 3) * 8;
+        for (; attr < end; attr += 8) {
+            if (getString(buffer.getInt(attr)).equals(name))
+                return getString(buffer.getInt(attr + 4));
+        }
+        return null;
+    }
+
+    int getChildCount(int node) {
+        return nodeField(node, 4);
+    }
+
+    /**
+     * @return 没有附加数据时返回 null
+     */
+    byte[] getData(int node) {
+        int offset = nodeField(node, 5);
+        if (offset < 0)
+            return null;
+        byte[] data = new byte[nodeField(node, 6)];
+        ByteBuffer src = buffer.duplicate();
+        src.position(dataOffset + offset);
+        src.get(data);
+        return data;
+    }
+
+    private int nodeField(int node, int field) {
+        return buffer.getInt(nodesOffset + node * NODE_SIZE + field * 4);
+    }
+
+    private String getString(int index) {
+        String s = strings[index];
+        if (s == null) {
+            int start = buffer.getInt(stringIndexOffset + index * 4);
+            int end = buffer.getInt(stringIndexOffset + index * 4 + 4);
+            char[] chars = new char[end - start];
+            int offset = charsOffset + start * 2;
+            for (int i = 0; i < chars.length; i++, offset += 2) {
+                chars[i] = buffer.getChar(offset);
+            }
+            s = new String(chars);
+            strings[index] = s;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.editor.v2.highlight;
+
+import android.os.AsyncTask;
+
+import com.jecelyin.common.utils.L;
+import com.jecelyin.editor.v2.highlight.jedit.LineManager;
+import com.jecelyin.editor.v2.highlight.jedit.Segment;
+import com.jecelyin.editor.v2.highlight.jedit.syntax.SyntaxStyle;
+import com.jecelyin.editor.v2.highlight.jedit.syntax.Token;
+import com.jecelyin.editor.v2.highlight.jedit.syntax.TokenHandler;
+import com.jecelyin.editor.v2.highlight.jedit.syntax.TokenMarker;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * 后台语法高亮：在工作线程中分批解析，每批完成后回到UI线程更新 {@link TokenRuns}。
+ * 先处理屏幕上可见的行，再从头到尾把整个文件补完；新的编辑会让还没完成的旧任务作废
+ *
+ * 编辑之后从被修改的行开始往下重新解析，直到某一行结束时的 LineContext 和之前保存的一样为止，
+ * 这样打开一个多行注释之类的修改也能让下面的行正确变色，而不用重新高亮整个文件
+ *
+ * TokenMarker 不是线程安全的，并且同一种语言的所有文档共用一个，
+ * 所以所有的解析都放在同一个线程里按顺序执行
+ *
+ * 一批文本在间隙缓冲区里是连续的话，工作线程直接读编辑器的数组，不复制。
+ * 期间文本被修改的话 generation 一定会变，读到的不一致的内容算出的结果会被丢弃
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+public class HighlightEngine {
+    private final static int BATCH_LINES = 300;
+    private final static int BATCH_CHARS = 64 * 1024;
+    private final static Executor EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Buffer buffer;
+    private final TokenRuns tokenRuns;
+    private OnHighlightChangedListener onHighlightChangedListener;
+    private SyntaxStyle[] styles;
+    /**
+     * 每次编辑或重新开始都会加1，旧任务发现不一致就提前结束，结果也会被丢弃
+     */
+    private volatile int generation;
+    /**
+     * [0, validLine) 行的 LineContext 已经算好并且已经着色
+     */
+    private int validLine;
+    /**
+     * validLine 之前被编辑过，必须重新解析的行，-1 表示没有。
+     * 处理到 dirtyEnd 后如果 LineContext 还没有收敛，会继续往下处理
+     */
+    private int dirtyStart = -1;
+    private int dirtyEnd = -1;
+    private int firstVisibleLine;
+    private int lastVisibleLine = -1;
+    private boolean viewportDone;
+    private HighlightTask runningTask;
+    /**
+     * 上一个已经结束的任务用过的数组，下一批接着用
+     */
+    private Batch recycledBatch;
+
+    public interface OnHighlightChangedListener {
+        /**
+         * 可见范围内的行的颜色变了，需要重绘
+         */
+        void onHighlightChanged();
+    }
+
+    public HighlightEngine(Buffer buffer) {
+        this.buffer = buffer;
+        tokenRuns = new TokenRuns(buffer);
+    }
+
+    public TokenRuns getTokenRuns() {
+        return tokenRuns;
+    }
+
+    public void setOnHighlightChangedListener(OnHighlightChangedListener listener) {
+        this.onHighlightChangedListener = listener;
+    }
+
+    /**
+     * 从头开始高亮整个文件，在加载文件或者切换语言后调用
+     */
+    public void start(SyntaxStyle[] styles) {
+        this.styles = styles;
+        cancel();
+        tokenRuns.setStyles(styles);
+        tokenRuns.clear();
+        validLine = 0;
+        dirtyStart = dirtyEnd = -1;
+        viewportDone = false;
+        schedule();
+    }
+
+    /**
+     * 停止高亮，之后的编辑也不再处理，直到再次调用 {@link #start(SyntaxStyle[])}
+     */
+    public void stop() {
+        boolean started = isStarted();
+        styles = null;
+        cancel();
+        tokenRuns.clear();
+        if (started && onHighlightChangedListener != null)
+            onHighlightChangedListener.onHighlightChanged();
+    }
+
+    public boolean isStarted() {
+        return styles != null;
+    }
+
+    /**
+     * 丢弃还没应用的结果
+     */
+    private void cancel() {
+        generation++;
+        if (runningTask != null) {
+            runningTask.cancel(false);
+            runningTask = null;
+        }
+    }
+
+    /**
+     * 文本被编辑后调用，行号都是编辑后的行号
+     *
+     * @param startLine 第一个被修改的行
+     * @param endLine 最后一个被修改的行
+     * @param lineDelta 增加的行数，删除时为负数
+     */
+    public void onLinesChanged(int startLine, int endLine, int lineDelta) {
+        if (!isStarted())
+            return;
+        cancel();
+        viewportDone = false;
+        tokenRuns.onLinesChanged(startLine, lineDelta);
+
+        int oldEndLine = endLine - lineDelta;
+        if (validLine > oldEndLine) {
+            validLine += lineDelta;
+        } else if (validLine > startLine) {
+            validLine = startLine;
+        }
+
+        if (dirtyStart >= 0) {
+            dirtyStart = Math.min(shiftLine(dirtyStart, endLine, oldEndLine, lineDelta), startLine);
+            dirtyEnd = Math.max(shiftLine(dirtyEnd, endLine, oldEndLine, lineDelta), endLine);
+        } else {
+            dirtyStart = startLine;
+            dirtyEnd = endLine;
+        }
+        //validLine 之后的行本来就会被依次处理
+        dirtyEnd = Math.min(dirtyEnd, validLine - 1);
+        if (dirtyStart > dirtyEnd)
+            dirtyStart = dirtyEnd = -1;
+
+        schedule();
+    }
+
+    private static int shiftLine(int line, int endLine, int oldEndLine, int lineDelta) {
+        return line > oldEndLine ? line + lineDelta : Math.min(line, endLine);
+    }
+
+    /**
+     * 设置屏幕上可见的行，这些行会被优先高亮
+     */
+    public void setViewport(int firstLine, int lastLine) {
+        if (firstLine == firstVisibleLine && lastLine == lastVisibleLine)
+            return;
+        firstVisibleLine = firstLine;
+        lastVisibleLine = lastLine;
+        viewportDone = false;
+        schedule();
+    }
+
+    private void schedule() {
+        if (runningTask != null || styles == null || !buffer.isCanHighlight())
+            return;
+
+        int lineCount = buffer.getLineManager().getLineCount();
+        int last = Math.min(lastVisibleLine, lineCount - 1);
+        boolean dirty = dirtyStart >= 0;
+        int next = dirty ? dirtyStart : validLine;
+        if (next >= lineCount)
+            return;
+
+        HighlightTask task;
+        if (!viewportDone && last >= firstVisibleLine && firstVisibleLine - next > BATCH_LINES
+                && (last >= validLine || (dirty && dirtyStart <= last && dirtyEnd >= firstVisibleLine))) {
+            //还要过一段时间才能按顺序处理到屏幕上的行，先用可能还不准确的上下文给它们着色
+            task = createTask(HighlightTask.VIEWPORT, firstVisibleLine, last, last);
+        } else if (dirty) {
+            task = createTask(HighlightTask.DIRTY, dirtyStart, validLine - 1, dirtyEnd);
+        } else {
+            task = createTask(HighlightTask.PASS, validLine, lineCount - 1, lineCount - 1);
+        }
+        runningTask = task;
+        task.executeOnExecutor(EXECUTOR);
+    }
+
+    /**
+     * @param mustEndLine 这一行之前（包括这一行）的都必须重新解析，之后的行在 LineContext 收敛后可以跳过
+     */
+    private HighlightTask createTask(int type, int firstLine, int lastLine, int mustEndLine) {
+        LineManager lineManager = buffer.getLineManager();
+        int textStart = lineManager.getLineStartOffset(firstLine);
+
+        int count = 0;
+        int line = firstLine;
+        while (line <= lastLine && count < BATCH_LINES
+                && lineManager.getLineStartOffset(line) - textStart < BATCH_CHARS) {
+            line++;
+            count++;
+        }
+
+        Batch batch = recycledBatch;
+        recycledBatch = null;
+        if (batch == null)
+            batch = new Batch();
+        //不包含换行符，最后一行的结束位置是文本长度+1
+        int textEnd = lineManager.getLineEndOffset(firstLine + count - 1) - 1;
+        char[] text;
+        int textOffset = buffer.getRawOffset(textStart, textEnd);
+        if (textOffset >= 0) {
+            text = buffer.getRawChars();
+        } else {
+            //跨过了间隙，只能复制一份
+            if (batch.copy == null || batch.copy.length < textEnd - textStart)
+                batch.copy = new char[Math.max(textEnd - textStart, BATCH_CHARS)];
+            buffer.getChars(textStart, textEnd, batch.copy, 0);
+            text = batch.copy;
+            textOffset = 0;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int start = lineManager.getLineStartOffset(firstLine + i);
+            batch.lineStarts[i] = start - textStart + textOffset;
+            batch.lineLengths[i] = lineManager.getLineEndOffset(firstLine + i) - start - 1;
+            batch.oldContexts[i] = type == HighlightTask.DIRTY ? lineManager.getLineContext(firstLine + i) : null;
+        }
+
+        TokenMarker.LineContext prevContext = firstLine == 0 ? null : lineManager.getLineContext(firstLine - 1);
+        return new HighlightTask(type, generation, buffer.getTokenMarker(), styles, firstLine,
+                mustEndLine - firstLine, count, text, batch, prevContext);
+    }
+
+    private void onTaskDone(HighlightTask task) {
+        //下面读完结果才会创建下一个任务
+        recycledBatch = task.batch;
+        if (task != runningTask)
+            return;
+        runningTask = null;
+        if (task.generation != generation || !task.done)
+            return;
+
+        Batch batch = task.batch;
+        int lastLine = task.firstLine + task.lineCount - 1;
+        int runStart = 0;
+        for (int i = 0; i < task.lineCount; i++) {
+            tokenRuns.setLineRuns(task.firstLine + i, batch.runs, runStart, batch.runEnds[i]);
+            runStart = batch.runEnds[i];
+        }
+        boolean visible = lastVisibleLine < 0 || (task.firstLine <= lastVisibleLine && lastLine >= firstVisibleLine);
+        if (onHighlightChangedListener != null && visible)
+            onHighlightChangedListener.onHighlightChanged();
+
+        int nextLine = task.firstLine + task.lineCount;
+        if (task.type == HighlightTask.VIEWPORT) {
+            viewportDone = true;
+        } else {
+            LineManager lineManager = buffer.getLineManager();
+            for (int i = 0; i < task.lineCount; i++) {
+                lineManager.setLineContext(task.firstLine + i, batch.lineContexts[i]);
+            }
+            if (task.type == HighlightTask.DIRTY) {
+                if (task.converged || nextLine >= validLine) {
+                    dirtyStart = dirtyEnd = -1;
+                } else {
+                    //最后一行的 LineContext 变了，下一行也要重新解析
+                    dirtyStart = nextLine;
+                    dirtyEnd = Math.max(dirtyEnd, nextLine);
+                }
+            } else {
+                validLine = nextLine;
+            }
+        }
+
+        schedule();
+    }
+
+    private static boolean isSameContext(TokenMarker.LineContext context, TokenMarker.LineContext old) {
+        //LineContext 都是 intern 过的，一般直接比较引用就够了
+        return context == old || (context != null && context.equals(old));
+    }
+
+    /**
+     * 一批解析用到的数组，任务结束后留给下一批接着用，稳定后解析时不再分配内存。
+     * 同时作为 TokenHandler 直接把 token 转成 (开始, 长度, 样式id) 三元组，不创建 Token 对象
+     */
+    private static class Batch implements TokenHandler {
+        final int[] lineStarts = new int[BATCH_LINES];
+        final int[] lineLengths = new int[BATCH_LINES];
+        /**
+         * 修改前保存的各行 LineContext，只有 DIRTY 任务才有
+         */
+        final TokenMarker.LineContext[] oldContexts = new TokenMarker.LineContext[BATCH_LINES];
+        final TokenMarker.LineContext[] lineContexts = new TokenMarker.LineContext[BATCH_LINES];
+        /**
+         * 所有行的三元组接在一起，第 i 行在 [runEnds[i - 1], runEnds[i]) 中
+         */
+        int[] runs = new int[BATCH_LINES * 3];
+        final int[] runEnds = new int[BATCH_LINES];
+        int runCount;
+        /**
+         * 当前行三元组的开始位置，相邻并且样式相同的只在这一行内合并
+         */
+        int lineRunStart;
+        SyntaxStyle[] styles;
+        /**
+         * 跨过间隙时复制文本用的数组
+         */
+        char[] copy;
+        final Segment segment = new Segment();
+
+        @Override
+        public void handleToken(Segment seg, byte id, int offset, int length, TokenMarker.LineContext context) {
+            if (id == Token.END || length == 0 || styles[id] == null)
+                return;
+            int size = runCount;
+            if (size > lineRunStart && runs[size - 1] == id && runs[size - 3] + runs[size - 2] == offset) {
+                runs[size - 2] += length;
+                return;
+            }
+            if (size + 3 > runs.length) {
+                int[] newRuns = new int[runs.length * 2];
+                System.arraycopy(runs, 0, newRuns, 0, size);
+                runs = newRuns;
+            }
+            runs[size] = offset;
+            runs[size + 1] = length;
+            runs[size + 2] = id;
+            runCount = size + 3;
+        }
+
+        @Override
+        public void setLineContext(TokenMarker.LineContext lineContext) {
+        }
+    }
+
+    private class HighlightTask extends AsyncTask<Void, Void, Void> {
+        /**
+         * 从 validLine 开始按顺序处理
+         */
+        final static int PASS = 0;
+        /**
+         * 重新处理编辑过的行
+         */
+        final static int DIRTY = 1;
+        /**
+         * 只给可见的行着色，不保存 LineContext
+         */
+        final static int VIEWPORT = 2;
+
+        final int type;
+        final int generation;
+        final TokenMarker tokenMarker;
+        final SyntaxStyle[] styles;
+        final int firstLine;
+        /**
+         * 相对于 firstLine，这一行之后才检查是否收敛
+         */
+        final int mustEnd;
+        final int batchLines;
+        /**
+         * 编辑器的间隙缓冲区或者 batch.copy
+         */
+        final char[] text;
+        final Batch batch;
+        final TokenMarker.LineContext prevContext;
+        /**
+         * 实际处理了的行数，收敛后后面的行就不用处理了
+         */
+        int lineCount;
+        boolean converged;
+        boolean done;
+
+        HighlightTask(int type, int generation, TokenMarker tokenMarker, SyntaxStyle[] styles,
+                      int firstLine, int mustEnd, int batchLines, char[] text, Batch batch,
+                      TokenMarker.LineContext prevContext) {
+            this.type = type;
+            this.generation = generation;
+            this.tokenMarker = tokenMarker;
+            this.styles = styles;
+            this.firstLine = firstLine;
+            this.mustEnd = mustEnd;
+            this.batchLines = batchLines;
+            this.text = text;
+            this.batch = batch;
+            this.prevContext = prevContext;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            Batch batch = this.batch;
+            int count = batchLines;
+            Segment segment = batch.segment;
+            segment.array = text;
+            TokenMarker.LineContext context = prevContext;
+            boolean converged = false;
+            boolean dirty = type == DIRTY;
+            batch.styles = styles;
+            batch.runCount = 0;
+
+            try {
+                int i = 0;
+                while (i < count && !converged) {
+                    if (isCancelled() || generation != HighlightEngine.this.generation)
+                        return null;
+                    segment.offset = batch.lineStarts[i];
+                    segment.count = batch.lineLengths[i];
+                    batch.lineRunStart = batch.runCount;
+                    context = tokenMarker.markTokens(context, batch, segment);
+                    batch.lineContexts[i] = context;
+                    batch.runEnds[i] = batch.runCount;
+                    if (dirty && i >= mustEnd)
+                        converged = isSameContext(context, batch.oldContexts[i]);
+                    i++;
+                }
+                count = i;
+            } catch (Exception e) {
+                L.e(e);
+                return null;
+            } finally {
+                //不要让留着的 batch 拉住编辑器已经换掉的旧数组
+                segment.array = null;
+            }
+            this.lineCount = count;
+            this.converged = converged;
+            this.done = true;
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void aVoid) {
+            onTaskDone(this);
+        }
+
+        @Override
+        protected void onCancelled(Void aVoid) {
+            recycledBatch = batch;
+        }
+    }
+}
@@ -31,12 +31,7 @@ import com.jecelyin.editor.v2.highlight.jedit.syntax.ParserRuleSet;
 import com.jecelyin.editor.v2.highlight.jedit.syntax.Token;
 import com.jecelyin.editor.v2.highlight.jedit.syntax.TokenMarker;
 
-import org.msgpack.core.MessagePack;
-import org.msgpack.core.MessageUnpacker;
-
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Stack;
 import java.util.Vector;
@@ -50,6 +45,10 @@ import java.util.regex.PatternSyntaxException;
  * @version $Id: XModeHandler.java 21831 2012-06-18 22:54:17Z ezust $
  */
 public class ModeObjectHandler {
+    /**
+     * XML2Bin 预先生成的关键字表，在 KEYWORDS 里面代替逐个的关键字元素
+     */
+    private static final String KEYWORD_TABLE = "KEYWORD_TABLE";
 
     //{{{ XModeHandler constructor
     public ModeObjectHandler(String modeName) {
@@ -59,43 +58,49 @@ public class ModeObjectHandler {
         stateStack = new Stack<>();
     } //}}}
 
-    public void process(int langRawResId) throws IOException {
-        startDocument();
+    /**
+     * @param grammarPath assets 中 XML2Bin 生成的语法文件
+     */
+    public void process(String grammarPath) throws IOException {
+        GrammarFile grammar = GrammarFile.open(JecApp.getContext().getAssets(), grammarPath);
 
-        InputStream inputStream = JecApp.getContext().getResources().openRawResource(langRawResId);
-        MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(inputStream);
+        startDocument();
 
-        while (unpacker.hasNext()) {
-            handleChild(unpacker);
+        int nodeCount = grammar.getNodeCount();
+        int node = 0;
+        while (node < nodeCount) {
+            node = handleChild(grammar, node);
         }
 
-        unpacker.close();
-
         endDocument();
     }
 
-    private void handleChild(MessageUnpacker unpacker) throws IOException {
-        String tagName = unpacker.unpackString();
-
-        String text = unpacker.unpackString();
-        int attrCount = unpacker.unpackMapHeader();
-        HashMap<String, String> attrs = new HashMap<>(attrCount);
-        for (int i = 0; i < attrCount; i++) {
-            attrs.put(unpacker.unpackString(), unpacker.unpackString());
+    /**
+     * @return 下一个兄弟节点
+     */
+    private int handleChild(GrammarFile grammar, int node) throws IOException {
+        String tagName = grammar.getTag(node);
+        if (tagName.equals(KEYWORD_TABLE)) {
+            if (keywords != null)
+                keywords.addTable(grammar.getData(node));
+            return node + 1;
         }
 
 //        L.d("startElement: " + tagName);
-        startElement(tagName, attrs);
+        startElement(tagName, grammar, node);
+        String text = grammar.getText(node);
         if (text != null && !text.isEmpty()) {
             characters(text);
         }
 
-        int childCount = unpacker.unpackInt();
+        int childCount = grammar.getChildCount(node);
+        int child = node + 1;
         for (int i = 0; i < childCount; i++) {
-            handleChild(unpacker);
+            child = handleChild(grammar, child);
         }
 
         endElement(tagName);
+        return child;
     }
 
     //{{{ characters() method 在每次解析到元素标签携带的内容时都会调用，即使该元素标签的内容为空或换行。而且如果元素内嵌套元素，在父元素结束标签前， characters()方法会再次被调用，此处需要注意。
@@ -104,8 +109,8 @@ public class ModeObjectHandler {
     } //}}}
 
     //{{{ startElement() method 数据的解析工作主要由startElement这个方法完成，每个节点的解析都会调用此方法一次
-    public void startElement(String qName, HashMap<String, String> attrs) {
-        TagDecl tag = pushElement(qName, attrs);
+    public void startElement(String qName, GrammarFile grammar, int node) {
+        TagDecl tag = pushElement(qName, grammar, node);
 
         if (qName.equals("KEYWORDS")) {
             keywords = new KeywordMap(rules.getIgnoreCase());
@@ -366,7 +371,7 @@ public class ModeObjectHandler {
     //{{{ startDocument() method
     public void startDocument() {
         props = new Hashtable<String, String>();
-        pushElement(null, null);
+        pushElement(null, null, -1);
         reloadModes = new Vector<Mode>();
     } //}}}
 
@@ -469,9 +474,9 @@ public class ModeObjectHandler {
     } //}}}
 
     //{{{ pushElement() method
-    private TagDecl pushElement(String name, HashMap<String, String> attrs) {
+    private TagDecl pushElement(String name, GrammarFile grammar, int node) {
         if (name != null) {
-            TagDecl tag = new TagDecl(name, attrs);
+            TagDecl tag = new TagDecl(name, grammar, node);
             stateStack.push(tag);
             return tag;
         } else {
@@ -514,18 +519,18 @@ public class ModeObjectHandler {
      */
     private class TagDecl {
 
-        public TagDecl(String tagName, HashMap<String, String> attrs) {
+        public TagDecl(String tagName, GrammarFile grammar, int node) {
             this.tagName = tagName;
 
-            if (attrs == null)
+            if (grammar == null)
                 return;
 
             String tmp;
 
-            propName = attrs.get("NAME");
-            propValue = attrs.get("VALUE");
+            propName = grammar.getAttribute(node, "NAME");
+            propValue = grammar.getAttribute(node, "VALUE");
 
-            tmp = attrs.get("TYPE");
+            tmp = grammar.getAttribute(node, "TYPE");
             if (tmp != null) {
                 lastTokenID = Token.stringToToken(tmp);
                 if (lastTokenID == -1)
@@ -535,7 +540,7 @@ public class ModeObjectHandler {
             lastMatchType = ParserRule.MATCH_TYPE_RULE;
             // check for the deprecated "EXCLUDE_MATCH" and
             // warn if found.
-            tmp = attrs.get("EXCLUDE_MATCH");
+            tmp = grammar.getAttribute(node, "EXCLUDE_MATCH");
             if (tmp != null) {
                 L.w(modeName + ": EXCLUDE_MATCH is deprecated");
                 if ("TRUE".equalsIgnoreCase(tmp)) {
@@ -544,7 +549,7 @@ public class ModeObjectHandler {
             }
 
             // override with the newer MATCH_TYPE if present
-            tmp = attrs.get("MATCH_TYPE");
+            tmp = grammar.getAttribute(node, "MATCH_TYPE");
             if (tmp != null) {
                 if ("CONTEXT".equals(tmp)) {
                     lastMatchType = ParserRule.MATCH_TYPE_CONTEXT;
@@ -557,22 +562,22 @@ public class ModeObjectHandler {
                 }
             }
 
-            lastAtLineStart = "TRUE".equals(attrs.get("AT_LINE_START"));
-            lastAtWhitespaceEnd = "TRUE".equals(attrs.get("AT_WHITESPACE_END"));
-            lastAtWordStart = "TRUE".equals(attrs.get("AT_WORD_START"));
-            lastNoLineBreak = "TRUE".equals(attrs.get("NO_LINE_BREAK"));
-            lastNoWordBreak = "TRUE".equals(attrs.get("NO_WORD_BREAK"));
-            lastIgnoreCase = (attrs.get("IGNORE_CASE") == null ||
-                    "TRUE".equals(attrs.get("IGNORE_CASE")));
-            lastHighlightDigits = "TRUE".equals(attrs.get("HIGHLIGHT_DIGITS"));
-            lastRegexp = "TRUE".equals(attrs.get("REGEXP"));
-            lastDigitRE = attrs.get("DIGIT_RE");
-
-            tmp = attrs.get("NO_WORD_SEP");
+            lastAtLineStart = "TRUE".equals(grammar.getAttribute(node, "AT_LINE_START"));
+            lastAtWhitespaceEnd = "TRUE".equals(grammar.getAttribute(node, "AT_WHITESPACE_END"));
+            lastAtWordStart = "TRUE".equals(grammar.getAttribute(node, "AT_WORD_START"));
+            lastNoLineBreak = "TRUE".equals(grammar.getAttribute(node, "NO_LINE_BREAK"));
+            lastNoWordBreak = "TRUE".equals(grammar.getAttribute(node, "NO_WORD_BREAK"));
+            lastIgnoreCase = (grammar.getAttribute(node, "IGNORE_CASE") == null ||
+                    "TRUE".equals(grammar.getAttribute(node, "IGNORE_CASE")));
+            lastHighlightDigits = "TRUE".equals(grammar.getAttribute(node, "HIGHLIGHT_DIGITS"));
+            lastRegexp = "TRUE".equals(grammar.getAttribute(node, "REGEXP"));
+            lastDigitRE = grammar.getAttribute(node, "DIGIT_RE");
+
+            tmp = grammar.getAttribute(node, "NO_WORD_SEP");
             if (tmp != null)
                 lastNoWordSep = tmp;
 
-            tmp = attrs.get("AT_CHAR");
+            tmp = grammar.getAttribute(node, "AT_CHAR");
             if (tmp != null) {
                 try {
                     termChar = Integer.parseInt(tmp);
@@ -582,10 +587,10 @@ public class ModeObjectHandler {
                 }
             }
 
-            lastEscape = attrs.get("ESCAPE");
-            lastSetName = attrs.get("SET");
+            lastEscape = grammar.getAttribute(node, "ESCAPE");
+            lastSetName = grammar.getAttribute(node, "SET");
 
-            tmp = attrs.get("DELEGATE");
+            tmp = grammar.getAttribute(node, "DELEGATE");
             if (tmp != null) {
                 String delegateMode, delegateSetName;
 
@@ -619,7 +624,7 @@ public class ModeObjectHandler {
                 }
             }
 
-            tmp = attrs.get("DEFAULT");
+            tmp = grammar.getAttribute(node, "DEFAULT");
             if (tmp != null) {
                 lastDefaultID = Token.stringToToken(tmp);
                 if (lastDefaultID == -1) {
@@ -628,8 +633,8 @@ public class ModeObjectHandler {
                 }
             }
 
-            lastHashChar = attrs.get("HASH_CHAR");
-            lastHashChars = attrs.get("HASH_CHARS");
+            lastHashChar = grammar.getAttribute(node, "HASH_CHAR");
+            lastHashChars = grammar.getAttribute(node, "HASH_CHARS");
             if ((null != lastHashChar) && (null != lastHashChars)) {
                 error("hash-char-and-hash-chars-mutually-exclusive", null);
                 lastHashChars = null;
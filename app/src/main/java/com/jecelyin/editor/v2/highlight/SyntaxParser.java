@@ -18,20 +18,65 @@
 
 package com.jecelyin.editor.v2.highlight;
 
+import android.content.ComponentCallbacks2;
+
 import com.jecelyin.common.utils.L;
+import com.jecelyin.editor.v2.highlight.jedit.Catalog;
 import com.jecelyin.editor.v2.highlight.jedit.Mode;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
+ * 语法加载后缓存在 Catalog 的 Mode 里，整个进程只加载一次，所有 Buffer 共用同一个 TokenMarker。
+ * 共用是安全的，因为只在 HighlightEngine 的单个线程中标记 token
+ *
  * @author Jecelyin Peng <jecelyin@gmail.com>
  */
 
 public class SyntaxParser {
+    private final static Executor WARM_UP_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * 在后台预先加载最近使用过的语法，打开文件时就不用等待解析
+     */
+    public static void warmUp(final String[] modeNames) {
+        if (modeNames == null || modeNames.length == 0)
+            return;
+        WARM_UP_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String name : modeNames) {
+                    Mode mode = Catalog.getModeByName(name);
+                    if (mode != null)
+                        mode.getTokenMarker();
+                }
+            }
+        });
+    }
+
+    /**
+     * 内存不足时释放缓存的语法，打开的文档还在使用的语法会保留下来
+     *
+     * @param level {@link ComponentCallbacks2#onTrimMemory(int)} 的级别
+     */
+    public static void trimMemory(int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+            return;
+        for (Mode mode : Catalog.map.values()) {
+            mode.releaseTokenMarker();
+        }
+    }
+
+    /**
+     * 由 {@link Mode#loadIfNecessary()} 在持有加载锁时调用
+     */
     public static void loadMode(Mode mode) {
         String filename = mode.getFile();
-        int langDefine = LangMap.get(filename);
-        if (langDefine == 0) {
+        String langDefine = LangMap.get(filename);
+        if (langDefine == null) {
             L.d("Can't find a lang define: " + filename);
             return;
         }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.editor.v2.highlight;
+
+import com.jecelyin.editor.v2.core.text.SyntaxColorProvider;
+import com.jecelyin.editor.v2.highlight.jedit.LineManager;
+import com.jecelyin.editor.v2.highlight.jedit.syntax.SyntaxStyle;
+import com.jecelyin.editor.v2.highlight.jedit.syntax.Token;
+
+/**
+ * 按行保存的语法高亮结果，每行一个 int[]，格式见 {@link SyntaxColorProvider}。
+ * 绘制时由 TextLine 直接读取，不需要在文本里放 ForegroundColorSpan
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+public class TokenRuns implements SyntaxColorProvider {
+    private final Buffer buffer;
+    private final int[] colors = new int[Token.ID_COUNT];
+    private int[][] lines = new int[0][];
+
+    public TokenRuns(Buffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public void setStyles(SyntaxStyle[] styles) {
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = styles[i] == null ? 0 : styles[i].getForegroundColor();
+        }
+    }
+
+    public void clear() {
+        lines = new int[0][];
+    }
+
+    /**
+     * 复制 runs 中 [start, end) 的三元组作为这一行的结果，长度没变时直接覆盖原来的数组
+     */
+    void setLineRuns(int line, int[] runs, int start, int end) {
+        if (line >= lines.length) {
+            int[][] newLines = new int[Math.max(line + 1, lines.length * 3 / 2)][];
+            System.arraycopy(lines, 0, newLines, 0, lines.length);
+            lines = newLines;
+        }
+        int length = end - start;
+        if (length == 0) {
+            lines[line] = null;
+            return;
+        }
+        int[] lineRuns = lines[line];
+        if (lineRuns == null || lineRuns.length != length)
+            lineRuns = lines[line] = new int[length];
+        System.arraycopy(runs, start, lineRuns, 0, length);
+    }
+
+    /**
+     * 跟着 LineManager 在 startLine 之后插入或删除行
+     */
+    void onLinesChanged(int startLine, int lineDelta) {
+        int from = startLine + 1;
+        if (lineDelta == 0 || from >= lines.length)
+            return;
+        if (lineDelta > 0) {
+            int[][] newLines = new int[lines.length + lineDelta][];
+            System.arraycopy(lines, 0, newLines, 0, from);
+            System.arraycopy(lines, from, newLines, from + lineDelta, lines.length - from);
+            lines = newLines;
+        } else {
+            int removed = Math.min(-lineDelta, lines.length - from);
+            System.arraycopy(lines, from + removed, lines, from, lines.length - from - removed);
+            for (int i = lines.length - removed; i < lines.length; i++) {
+                lines[i] = null;
+            }
+        }
+    }
+
+    @Override
+    public int getLineForOffset(int offset) {
+        return buffer.getLineManager().getLineOfOffset(offset);
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        return buffer.getLineManager().getLineStartOffset(line);
+    }
+
+    @Override
+    public int[] getLineRuns(int line) {
+        LineManager lineManager = buffer.getLineManager();
+        if (line < 0 || line >= lines.length || line >= lineManager.getLineCount())
+            return null;
+        return lines[line];
+    }
+
+    @Override
+    public int getColor(int styleId) {
+        return colors[styleId];
+    }
+}
@@ -7,6 +7,7 @@ import com.jecelyin.common.utils.L;
 import com.jecelyin.editor.v2.highlight.SyntaxParser;
 import com.jecelyin.editor.v2.highlight.jedit.syntax.TokenMarker;
 
+import java.lang.ref.WeakReference;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -22,6 +23,12 @@ import java.util.regex.PatternSyntaxException;
  * @version $Id: Mode.java 23224 2013-09-30 20:51:42Z shlomy $
  */
 public class Mode {
+    /**
+     * 加载语法时会加载它引用的其它语法，所有模式共用一个锁，避免互相等待。
+     * 只有加载时才需要拿锁，已经加载好的直接读 marker
+     */
+    private static final Object LOAD_LOCK = new Object();
+
     private final String fileNameGlob;
     private final String firstLineGlob;
     private String file;
@@ -31,7 +38,18 @@ public class Mode {
     protected final Map<String, Object> props;
     private Matcher firstlineMatcher;
     private Matcher filepathMatcher;
-    protected TokenMarker marker;
+    /**
+     * 加载完成后才设置，其它线程不会拿到还没加载完的语法
+     */
+    protected volatile TokenMarker marker;
+    /**
+     * 正在加载的语法，只在持有加载锁的线程中使用，加载过程中引用自己时返回它
+     */
+    private TokenMarker loadingMarker;
+    /**
+     * 内存不足时释放的语法，还有 Buffer 在用时可以直接取回来
+     */
+    private WeakReference<TokenMarker> releasedMarker;
     //	private List<IndentRule> indentRules;
     private String electricKeys;
     private boolean ignoreWhitespace;
@@ -94,19 +112,45 @@ public class Mode {
      * Returns the token marker for this mode.
      */
     public TokenMarker getTokenMarker() {
-        loadIfNecessary();
-        return marker;
+        TokenMarker tokenMarker = marker;
+        if (tokenMarker != null)
+            return tokenMarker;
+        synchronized (LOAD_LOCK) {
+            loadIfNecessary();
+            tokenMarker = marker;
+            return tokenMarker != null ? tokenMarker : loadingMarker;
+        }
     } //}}}
 
     //{{{ setTokenMarker() method
 
     /**
      * Sets the token marker for this mode.
+     * 加载时设置的语法要等 {@link #loadIfNecessary()} 结束才对其它线程可见，设置为 null 时会重新加载
      *
      * @param marker The new token marker
      */
     public void setTokenMarker(TokenMarker marker) {
-        this.marker = marker;
+        synchronized (LOAD_LOCK) {
+            loadingMarker = marker;
+            this.marker = null;
+            releasedMarker = null;
+        }
+    } //}}}
+
+    //{{{ releaseTokenMarker() method
+
+    /**
+     * 内存不足时调用，不再强引用已经加载的语法。
+     * 打开的文档还在使用时语法不会被回收，下次取用时不用重新加载
+     */
+    public void releaseTokenMarker() {
+        synchronized (LOAD_LOCK) {
+            if (marker == null)
+                return;
+            releasedMarker = new WeakReference<TokenMarker>(marker);
+            marker = null;
+        }
     } //}}}
 
     //{{{ loadIfNecessary() method
@@ -117,9 +161,25 @@ public class Mode {
      * @since jEdit 2.5pre3
      */
     public void loadIfNecessary() {
-        if (marker == null) {
+        if (marker != null)
+            return;
+        synchronized (LOAD_LOCK) {
+            //正在加载时被它引用的语法又引用回来
+            if (marker != null || loadingMarker != null)
+                return;
+            if (releasedMarker != null) {
+                marker = releasedMarker.get();
+                releasedMarker = null;
+                if (marker != null)
+                    return;
+            }
             SyntaxParser.loadMode(this);
 //			ModeProvider.instance.loadMode(this);
+            //加载过程中被重新加载过的话 marker 已经是重新加载的结果
+            if (loadingMarker != null) {
+                marker = loadingMarker;
+                loadingMarker = null;
+            }
             if (marker == null)
                 L.e("Mode not correctly loaded, token marker is still null");
         }
@@ -132,6 +192,14 @@ public class Mode {
     public void setFile(String file) {
         this.file = file;
     }
+
+    public String getFileNameGlob() {
+        return fileNameGlob;
+    }
+
+    public String getFirstLineGlob() {
+        return firstLineGlob;
+    }
 //	//{{{ getProperty() method
 //	/**
 //	 * Returns a mode property.
@@ -253,7 +321,7 @@ public class Mode {
      * @return true if the file path or name matches the file name glob.
      * @since jEdit 4.5pre1
      */
-    public boolean acceptFile(String filePath, String fileName) {
+    public synchronized boolean acceptFile(String filePath, String fileName) {
         if (filepathMatcher == null)
             return false;
 
@@ -318,7 +386,7 @@ public class Mode {
      * @return true if the first line matches the first line glob.
      * @since jEdit 4.3pre18
      */
-    public boolean acceptFirstLine(String firstLine) {
+    public synchronized boolean acceptFirstLine(String firstLine) {
         if (firstlineMatcher == null)
             return false;
 
@@ -3,8 +3,9 @@ package com.jecelyin.editor.v2.highlight.jedit.syntax;
 
 import com.jecelyin.editor.v2.highlight.jedit.Segment;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
 
 /**
  * A <code>KeywordMap</code> is similar to a hashtable in that it maps keys
@@ -24,8 +25,6 @@ public class KeywordMap {
      */
     public KeywordMap(boolean ignoreCase) {
         this(ignoreCase, 52);
-        this.ignoreCase = ignoreCase;
-        noWordSep = new StringBuilder();
     } //}}}
 
     //{{{ KeywordMap constructor
@@ -34,13 +33,13 @@ public class KeywordMap {
      * Creates a new <code>KeywordMap</code>.
      *
      * @param ignoreCase True if the keys are case insensitive
-     * @param mapLength  The number of `buckets' to create.
-     *                   A value of 52 will give good performance for most maps.
+     * @param mapLength  The initial keyword capacity.
      */
     public KeywordMap(boolean ignoreCase, int mapLength) {
-        this.mapLength = mapLength;
         this.ignoreCase = ignoreCase;
-        map = new Keyword[mapLength];
+        keywords = new char[Math.max(mapLength, 1)][];
+        ids = new byte[keywords.length];
+        noWordSep = new StringBuilder();
     } //}}}
 
     //{{{ lookup() method
@@ -55,18 +54,13 @@ public class KeywordMap {
     public byte lookup(Segment text, int offset, int length) {
         if (length == 0)
             return Token.NULL;
-        Keyword k = map[getSegmentMapKey(text, offset, length)];
-        while (k != null) {
-            if (length != k.keyword.length) {
-                k = k.next;
-                continue;
-            }
-            if (SyntaxUtilities.regionMatches(ignoreCase, text, offset,
-                    k.keyword))
-                return k.id;
-            k = k.next;
+        KeywordTrie t = trie;
+        if (t == null) {
+            loadTableKeywords();
+            t = KeywordTrie.build(keywords, ids, count, ignoreCase);
+            trie = t;
         }
-        return Token.NULL;
+        return t.lookup(text.array, offset, length);
     } //}}}
 
     //{{{ add() method
@@ -91,8 +85,7 @@ public class KeywordMap {
      * @since jEdit 4.2pre3
      */
     public void add(char[] keyword, byte id) {
-        int key = getStringMapKey(keyword);
-
+        loadTableKeywords();
         // complete-word command needs a list of all non-alphanumeric
         // characters used in a keyword map.
         loop:
@@ -107,7 +100,102 @@ public class KeywordMap {
             }
         }
 
-        map[key] = new Keyword(keyword, id, map[key]);
+        append(keyword, id);
+        trie = null;
+    } //}}}
+
+    //{{{ append() method
+    private void append(char[] keyword, byte id) {
+        if (count == keywords.length) {
+            char[][] newKeywords = new char[count * 2][];
+            byte[] newIds = new byte[count * 2];
+            System.arraycopy(keywords, 0, newKeywords, 0, count);
+            System.arraycopy(ids, 0, newIds, 0, count);
+            keywords = newKeywords;
+            ids = newIds;
+        }
+        keywords[count] = keyword;
+        ids[count] = id;
+        count++;
+    } //}}}
+
+    //{{{ addTable() method
+
+    /**
+     * 添加 XML2Bin 预先生成的关键字表。
+     * 还没有关键字而且大小写设置相同时直接使用表里的字典树，关键字列表等到需要时再解码
+     */
+    public void addTable(byte[] table) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(table));
+        boolean tableIgnoreCase = in.readBoolean();
+        String tableNoWordSep = in.readUTF();
+        int typeCount = in.readUnsignedShort();
+        byte[] tokens = new byte[typeCount + 1];
+        tokens[0] = Token.NULL;
+        boolean valid = true;
+        for (int i = 1; i <= typeCount; i++) {
+            byte token = Token.stringToToken(in.readUTF());
+            if (token == -1)
+                valid = false;
+            tokens[i] = token;
+        }
+
+        int keywordsOffset = table.length - in.available();
+        if (count == 0 && this.table == null && valid && tableIgnoreCase == ignoreCase) {
+            int keywordCount = in.readInt();
+            for (int i = 0; i < keywordCount; i++) {
+                in.skipBytes(in.readUnsignedShort() + 1);
+            }
+            trie = KeywordTrie.read(in, tokens, ignoreCase);
+            noWordSep.append(tableNoWordSep);
+            this.table = table;
+            tableKeywordsOffset = keywordsOffset;
+            tableTokens = tokens;
+            return;
+        }
+
+        addTableKeywords(in, tokens, false);
+    } //}}}
+
+    //{{{ loadTableKeywords() method
+
+    /**
+     * 解码直接使用字典树时跳过的关键字列表
+     */
+    private synchronized void loadTableKeywords() {
+        byte[] table = this.table;
+        if (table == null)
+            return;
+        this.table = null;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(table,
+                tableKeywordsOffset, table.length - tableKeywordsOffset));
+        try {
+            addTableKeywords(in, tableTokens, true);
+        } catch (IOException e) {
+            //addTable 时已经完整读过一遍，不会出错
+            throw new IllegalStateException(e);
+        }
+        tableTokens = null;
+    } //}}}
+
+    //{{{ addTableKeywords() method
+
+    /**
+     * @param loaded 字典树和 noWordSep 已经包含这些关键字，只需要放进列表
+     */
+    private void addTableKeywords(DataInputStream in, byte[] tokens, boolean loaded) throws IOException {
+        int keywordCount = in.readInt();
+        for (int i = 0; i < keywordCount; i++) {
+            String keyword = in.readUTF();
+            byte id = tokens[in.readUnsignedByte()];
+            //和逐个添加时一样，NULL 类型的关键字也要加进来，跳过无效的类型
+            if (id == -1)
+                continue;
+            if (loaded)
+                append(keyword.toCharArray(), id);
+            else
+                add(keyword, id);
+        }
     } //}}}
 
     //{{{ getNonAlphaNumericChars() method
@@ -130,16 +218,11 @@ public class KeywordMap {
      * @since jEdit 4.0pre3
      */
     public String[] getKeywords() {
-        List<String> vector = new ArrayList<String>(100);
-        for (Keyword kw : map) {
-            Keyword keyword = kw;
-            while (keyword != null) {
-                vector.add(new String(keyword.keyword));
-                keyword = keyword.next;
-            }
+        loadTableKeywords();
+        String[] retVal = new String[count];
+        for (int i = 0; i < count; i++) {
+            retVal[i] = new String(keywords[i]);
         }
-        String[] retVal = new String[vector.size()];
-        vector.toArray(retVal);
         return retVal;
     } //}}}
 
@@ -163,6 +246,7 @@ public class KeywordMap {
      */
     public void setIgnoreCase(boolean ignoreCase) {
         this.ignoreCase = ignoreCase;
+        trie = null;
     } //}}}
 
     //{{{ add() method
@@ -173,50 +257,34 @@ public class KeywordMap {
      * @since jEdit 4.2pre3
      */
     public void add(KeywordMap map) {
-        for (int i = 0; i < map.map.length; i++) {
-            Keyword k = map.map[i];
-            while (k != null) {
-                add(k.keyword, k.id);
-                k = k.next;
-            }
+        map.loadTableKeywords();
+        for (int i = 0; i < map.count; i++) {
+            add(map.keywords[i], map.ids[i]);
         }
     } //}}}
 
     //{{{ Private members
 
     //{{{ Instance variables
-    private int mapLength;
-    private Keyword[] map;
+    /**
+     * 按添加顺序保存的关键字，合并其它关键字表时使用
+     */
+    private char[][] keywords;
+    private byte[] ids;
+    private int count;
+    /**
+     * 直接使用字典树时还没解码的关键字表，关键字列表从 tableKeywordsOffset 开始
+     */
+    private byte[] table;
+    private int tableKeywordsOffset;
+    private byte[] tableTokens;
+    /**
+     * 查找用的字典树，关键字改变后置为 null，下次查找时重新生成
+     */
+    private volatile KeywordTrie trie;
     private boolean ignoreCase;
     private StringBuilder noWordSep;
     //}}}
 
-    //{{{ getStringMapKey() method
-    private int getStringMapKey(char[] s) {
-        return (Character.toUpperCase(s[0]) +
-                Character.toUpperCase(s[s.length - 1]))
-                % mapLength;
-    } //}}}
-
-    //{{{ getSegmentMapKey() method
-    protected int getSegmentMapKey(Segment s, int off, int len) {
-        return (Character.toUpperCase(s.array[off]) +
-                Character.toUpperCase(s.array[off + len - 1]))
-                % mapLength;
-    } //}}}
-
     //}}}
-
-    //{{{ Keyword class
-    private static class Keyword {
-        Keyword(char[] keyword, byte id, Keyword next) {
-            this.keyword = keyword;
-            this.id = id;
-            this.next = next;
-        }
-
-        public char[] keyword;
-        public byte id;
-        public Keyword next;
-    } //}}}
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.editor.v2.highlight.jedit.syntax;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * 关键字的字典树，节点和边都放在数组里，查找时每个字符只做一次二分查找。
+ * 忽略大小写时边上存的是大写字符，查找时把文本转成大写再比较。
+ * 节点按层次遍历的顺序编号，第 i 条边指向的就是第 i + 1 个节点，所以不用保存边的终点。
+ *
+ * 可以在运行时由 {@link KeywordMap} 生成，也可以读取 tools 模块里 XML2Bin 预先生成的数据，
+ * 两边的格式要保持一致
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+final class KeywordTrie {
+    /**
+     * 节点匹配到的关键字类型，Token.NULL 表示不是关键字
+     */
+    private final byte[] values;
+    /**
+     * 第 i 个节点的边是 [edgeStart[i], edgeStart[i + 1])，按字符排序
+     */
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final boolean ignoreCase;
+
+    private KeywordTrie(byte[] values, int[] edgeStart, char[] edgeChars, boolean ignoreCase) {
+        this.values = values;
+        this.edgeStart = edgeStart;
+        this.edgeChars = edgeChars;
+        this.ignoreCase = ignoreCase;
+    }
+
+    byte lookup(char[] text, int offset, int length) {
+        int node = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            char c = text[i];
+            if (ignoreCase)
+                c = Character.toUpperCase(c);
+            node = child(node, c);
+            if (node < 0)
+                return Token.NULL;
+        }
+        return values[node];
+    }
+
+    private int child(int node, char c) {
+        int low = edgeStart[node];
+        int high = edgeStart[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = edgeChars[mid];
+            if (midChar < c)
+                low = mid + 1;
+            else if (midChar > c)
+                high = mid - 1;
+            else
+                return mid + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * 按添加的顺序生成，同一个关键字后添加的类型覆盖前面的
+     */
+    static KeywordTrie build(char[][] keywords, byte[] ids, int count, boolean ignoreCase) {
+        Node root = new Node();
+        int nodeCount = 1;
+        for (int i = 0; i < count; i++) {
+            Node node = root;
+            for (char c : keywords[i]) {
+                if (ignoreCase)
+                    c = Character.toUpperCase(c);
+                Node next = node.get(c);
+                if (next == null) {
+                    next = node.add(c);
+                    nodeCount++;
+                }
+                node = next;
+            }
+            node.value = ids[i];
+        }
+
+        //按层次遍历编号，同一个节点的边在数组中是连续的
+        byte[] values = new byte[nodeCount];
+        int[] edgeStart = new int[nodeCount + 1];
+        char[] edgeChars = new char[nodeCount - 1];
+        ArrayList<Node> queue = new ArrayList<Node>(nodeCount);
+        queue.add(root);
+        int edge = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            Node node = queue.get(i);
+            values[i] = node.value;
+            edgeStart[i] = edge;
+            for (int j = 0; j < node.size; j++) {
+                edgeChars[edge++] = node.chars[j];
+                queue.add(node.children[j]);
+            }
+        }
+        edgeStart[nodeCount] = edge;
+        return new KeywordTrie(values, edgeStart, edgeChars, ignoreCase);
+    }
+
+    /**
+     * 读取预先生成的数据
+     *
+     * @param tokens 数据中的类型序号到 Token 类型的映射
+     */
+    static KeywordTrie read(DataInput in, byte[] tokens, boolean ignoreCase) throws IOException {
+        int nodeCount = in.readInt();
+        byte[] values = new byte[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            values[i] = tokens[in.readUnsignedByte()];
+        }
+        //保存的是每个节点的边数
+        int[] edgeStart = new int[nodeCount + 1];
+        for (int i = 0; i < nodeCount; i++) {
+            edgeStart[i + 1] = edgeStart[i] + in.readChar();
+        }
+        int edgeCount = edgeStart[nodeCount];
+        if (edgeCount != nodeCount - 1)
+            throw new IOException("Invalid keyword trie");
+        char[] edgeChars = new char[edgeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            edgeChars[i] = in.readChar();
+        }
+        return new KeywordTrie(values, edgeStart, edgeChars, ignoreCase);
+    }
+
+    private static class Node {
+        char[] chars = new char[2];
+        Node[] children = new Node[2];
+        int size;
+        byte value = Token.NULL;
+
+        Node get(char c) {
+            int index = indexOf(c);
+            return index < 0 ? null : children[index];
+        }
+
+        Node add(char c) {
+            int index = -(indexOf(c) + 1);
+            if (size == chars.length) {
+                char[] newChars = new char[size * 2];
+                Node[] newChildren = new Node[size * 2];
+                System.arraycopy(chars, 0, newChars, 0, size);
+                System.arraycopy(children, 0, newChildren, 0, size);
+                chars = newChars;
+                children = newChildren;
+            }
+            System.arraycopy(chars, index, chars, index + 1, size - index);
+            System.arraycopy(children, index, children, index + 1, size - index);
+            Node node = new Node();
+            chars[index] = c;
+            children[index] = node;
+            size++;
+            return node;
+        }
+
+        private int indexOf(char c) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (chars[mid] < c)
+                    low = mid + 1;
+                else if (chars[mid] > c)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -(low + 1);
+        }
+    }
+}
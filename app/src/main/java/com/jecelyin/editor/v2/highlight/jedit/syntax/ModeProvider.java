@@ -8,7 +8,8 @@ import com.jecelyin.editor.v2.highlight.jedit.Catalog;
 import com.jecelyin.editor.v2.highlight.jedit.Mode;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
 //}}}
 
@@ -71,54 +72,249 @@ public class ModeProvider {
         if (filename != null && filename.endsWith(".gz"))
             filename = filename.substring(0, filename.length() - 3);
 
-        List<Mode> acceptable = new ArrayList<Mode>(1);
-        for (Mode mode : Catalog.map.values()) {
-            if (mode.accept(filepath, filename, firstLine)) {
-                acceptable.add(mode);
+        // 和逐个调用 Mode.accept() 后的选择结果一样：后面的模式优先，
+        // 名字完全相同的最优先，其次是文件名和首行都匹配的，然后是文件名匹配的，
+        // 都没有时才是只有首行匹配的
+        ModeIndex index = ModeIndex.INSTANCE;
+
+        // the very most acceptable mode is one whose file
+        // name doesn't only match the file name as regular
+        // expression but which is identical
+        Mode identical = index.findIdentical(filepath, filename);
+        if (identical != null)
+            return identical;
+
+        BitSet matched = new BitSet(index.modes.length);
+        index.findByName(filename, matched);
+        index.findByName(filepath, matched);
+        for (int i : index.complexModes) {
+            if (index.modes[i].acceptFile(filepath, filename))
+                matched.set(i);
+        }
+
+        if (!matched.isEmpty()) {
+            Mode fileMode = null;
+            Mode firstLineMode = null;
+            for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+                Mode mode = index.modes[i];
+                fileMode = mode;
+                if (mode.acceptFirstLine(firstLine))
+                    firstLineMode = mode;
             }
+            return firstLineMode != null ? firstLineMode : fileMode;
         }
-        if (acceptable.size() == 1) {
-            return acceptable.get(0);
+
+        Mode firstLineMode = null;
+        for (int i : index.firstLineModes) {
+            if (index.modes[i].acceptFirstLine(firstLine))
+                firstLineMode = index.modes[i];
         }
-        if (acceptable.size() > 1) {
-            // The check should be in reverse order so that
-            // modes from the user catalog get checked first!
-            Collections.reverse(acceptable);
-
-            // the very most acceptable mode is one whose file
-            // name doesn't only match the file name as regular
-            // expression but which is identical
-            for (Mode mode : acceptable) {
-                if (mode.acceptIdentical(filepath, filename)) {
-                    return mode;
+        // no matching mode found for this file
+        return firstLineMode;
+    } //}}}
+
+    //{{{ error() method
+    protected void error(String file, Throwable e) {
+        L.e(file, e);
+    } //}}}
+
+    //{{{ ModeIndex class
+
+    /**
+     * 从 Catalog 的文件名规则中提取出扩展名和文件名建立索引，打开文件时不用逐个执行正则。
+     * 只有复杂的文件名规则和首行规则才需要执行正则。
+     * 模式用它在 Catalog.map 中的遍历顺序表示，匹配多个时按这个顺序选择
+     */
+    private static class ModeIndex {
+        private static final ModeIndex INSTANCE = new ModeIndex();
+
+        private static final String PATH_PREFIX = "(?:.*[/\\\\])?";
+        private static final String EXTENSION_PREFIX = ".*\\.";
+        private static final int[] NO_MODES = new int[0];
+
+        final Mode[] modes;
+        /**
+         * 扩展名（小写）到模式的索引
+         */
+        private final HashMap<String, int[]> extensions = new HashMap<String, int[]>();
+        /**
+         * 文件名（小写）到模式的索引
+         */
+        private final HashMap<String, int[]> names = new HashMap<String, int[]>();
+        /**
+         * 规则本身（小写）到模式，同一个规则后面的模式覆盖前面的
+         */
+        private final HashMap<String, Mode> identicalNames = new HashMap<String, Mode>();
+        /**
+         * 不能建立索引，需要执行正则的模式
+         */
+        final int[] complexModes;
+        final int[] firstLineModes;
+
+        private ModeIndex() {
+            modes = Catalog.map.values().toArray(new Mode[Catalog.map.size()]);
+            List<Integer> complex = new ArrayList<Integer>();
+            List<Integer> firstLine = new ArrayList<Integer>();
+            for (int i = 0; i < modes.length; i++) {
+                Mode mode = modes[i];
+                String glob = mode.getFileNameGlob();
+                if (glob != null && !glob.isEmpty()) {
+                    identicalNames.put(toLowerCase(glob), mode);
+                    if (!addToIndex(glob, i))
+                        complex.add(i);
                 }
+                String firstLineGlob = mode.getFirstLineGlob();
+                if (firstLineGlob != null && !firstLineGlob.isEmpty())
+                    firstLine.add(i);
             }
+            complexModes = toArray(complex);
+            firstLineModes = toArray(firstLine);
+        }
 
-            // most acceptable is a mode that matches both the
-            // filepath and the first line glob
-            for (Mode mode : acceptable) {
-                if (mode.acceptFile(filepath, filename) &&
-                        mode.acceptFirstLine(firstLine)) {
-                    return mode;
+        /**
+         * 支持由 *.ext、*.{ext1,ext2} 和固定文件名这几种 glob 转换来的规则
+         *
+         * @return 规则太复杂不能建立索引时返回 false
+         */
+        private boolean addToIndex(String glob, int mode) {
+            if (!glob.startsWith(PATH_PREFIX))
+                return false;
+            String rest = glob.substring(PATH_PREFIX.length());
+            if (rest.startsWith(EXTENSION_PREFIX)) {
+                String[] exts = expandAlternatives(rest.substring(EXTENSION_PREFIX.length()));
+                if (exts == null)
+                    return false;
+                for (String ext : exts) {
+                    put(extensions, toLowerCase(ext), mode);
                 }
+                return true;
             }
-            // next best is filepath match
-            for (Mode mode : acceptable) {
-                if (mode.acceptFile(filepath, filename)) {
-                    return mode;
+
+            StringBuilder name = new StringBuilder(rest.length());
+            for (int i = 0; i < rest.length(); i++) {
+                char c = rest.charAt(i);
+                if (c == '\\' && i + 1 < rest.length() && rest.charAt(i + 1) == '.') {
+                    name.append('.');
+                    i++;
+                } else if (isLiteral(c)) {
+                    name.append(c);
+                } else {
+                    return false;
                 }
             }
-            // all acceptable choices are by first line glob, and
-            // they all match, so just return the first one.
-            return acceptable.get(0);
+            if (name.length() == 0)
+                return false;
+            put(names, toLowerCase(name.toString()), mode);
+            return true;
         }
-        // no matching mode found for this file
-        return null;
-    } //}}}
 
-    //{{{ error() method
-    protected void error(String file, Throwable e) {
-        L.e(file, e);
+        /**
+         * 展开 "ext"、"(a|b)"、"x(a|b)" 这样的扩展名规则
+         *
+         * @return 包含其它正则语法时返回 null
+         */
+        private static String[] expandAlternatives(String pattern) {
+            String head = pattern;
+            String tail = "";
+            String[] alternatives = {""};
+            int open = pattern.indexOf('(');
+            if (open >= 0) {
+                int close = pattern.indexOf(')', open);
+                if (close < 0)
+                    return null;
+                head = pattern.substring(0, open);
+                tail = pattern.substring(close + 1);
+                alternatives = pattern.substring(open + 1, close).split("\\|", -1);
+            }
+            String[] exts = new String[alternatives.length];
+            for (int i = 0; i < alternatives.length; i++) {
+                String ext = head + alternatives[i] + tail;
+                if (ext.isEmpty())
+                    return null;
+                for (int j = 0; j < ext.length(); j++) {
+                    if (!isLiteral(ext.charAt(j)))
+                        return null;
+                }
+                exts[i] = ext;
+            }
+            return exts;
+        }
+
+        private static boolean isLiteral(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '_' || c == '-';
+        }
+
+        private static void put(HashMap<String, int[]> index, String key, int mode) {
+            int[] old = index.get(key);
+            if (old == null) {
+                index.put(key, new int[]{mode});
+            } else if (old[old.length - 1] != mode) {
+                int[] modes = new int[old.length + 1];
+                System.arraycopy(old, 0, modes, 0, old.length);
+                modes[old.length] = mode;
+                index.put(key, modes);
+            }
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+
+        /**
+         * 和 Pattern.CASE_INSENSITIVE 一样只转换 ASCII 字符
+         */
+        private static String toLowerCase(String s) {
+            char[] chars = null;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c >= 'A' && c <= 'Z') {
+                    if (chars == null)
+                        chars = s.toCharArray();
+                    chars[i] = (char) (c + ('a' - 'A'));
+                }
+            }
+            return chars == null ? s : new String(chars);
+        }
+
+        private static String getName(String path) {
+            int index = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+            return path.substring(index + 1);
+        }
+
+        Mode findIdentical(String filepath, String filename) {
+            Mode mode = null;
+            if (filename != null)
+                mode = identicalNames.get(toLowerCase(filename));
+            if (mode == null && filepath != null)
+                mode = identicalNames.get(toLowerCase(getName(filepath)));
+            return mode != null && mode.acceptIdentical(filepath, filename) ? mode : null;
+        }
+
+        void findByName(String path, BitSet matched) {
+            if (path == null)
+                return;
+            String name = toLowerCase(getName(path));
+            int[] found = names.get(name);
+            if (found == null)
+                found = NO_MODES;
+            for (int i : found) {
+                matched.set(i);
+            }
+            int dot = name.lastIndexOf('.');
+            if (dot < 0)
+                return;
+            found = extensions.get(name.substring(dot + 1));
+            if (found == null)
+                return;
+            for (int i : found) {
+                matched.set(i);
+            }
+        }
     } //}}}
 
 }
@@ -3,6 +3,8 @@ package com.jecelyin.editor.v2.highlight.jedit.syntax;
 
 //{{{ Imports
 
+import android.util.SparseArray;
+
 import java.util.*;
 import java.util.regex.Pattern;
 //}}}
@@ -90,6 +92,7 @@ public class ParserRuleSet {
             }
         }
         imports.clear();
+        compileRules();
     } //}}}
 
     //{{{ addRuleSet() method
@@ -130,28 +133,64 @@ public class ParserRuleSet {
             }
             rules.add(r);
         }
+        ruleTable = null;
     } //}}}
 
     //{{{ getRules() method
-    public List<ParserRule> getRules(Character key) {
+
+    /**
+     * 查表得到以这个字符开头的规则，先是这个字符的规则，后面是不限开头字符的规则。
+     * 不装箱也不分配内存，返回的数组是共享的，不能修改
+     */
+    public ParserRule[] getRules(char key) {
+        ParserRule[][] table = ruleTable;
+        if (table == null)
+            table = compileRules();
+        if (key < RULE_TABLE_SIZE)
+            return table[key];
+        int upperKey = Character.toUpperCase(key);
+        if (upperKey < RULE_TABLE_SIZE)
+            return table[upperKey];
+        return ruleFallback.get(upperKey, rulesForAnyChar);
+    } //}}}
+
+    //{{{ compileRules() method
+
+    /**
+     * 把规则按开头字符合并成查找表：Latin-1 范围内按字符直接索引（已经包含了大小写转换），
+     * 其它字符按大写放在 SparseArray 中
+     */
+    private ParserRule[][] compileRules() {
         List<ParserRule> rulesForNull = ruleMap.get(null);
-        boolean emptyForNull = rulesForNull == null || rulesForNull.isEmpty();
-        Character upperKey = key == null ? null : Character.toUpperCase(key);
-        List<ParserRule> rulesForKey = upperKey == null ? null : ruleMap.get(upperKey);
-        boolean emptyForKey = rulesForKey == null || rulesForKey.isEmpty();
-        if (emptyForNull && emptyForKey) {
-            return Collections.emptyList();
-        } else if (emptyForKey) {
-            return rulesForNull;
-        } else if (emptyForNull) {
-            return rulesForKey;
-        } else {
-            int size = rulesForNull.size() + rulesForKey.size();
-            List<ParserRule> mixed = new ArrayList<ParserRule>(size);
-            mixed.addAll(rulesForKey);
-            mixed.addAll(rulesForNull);
-            return mixed;
+        ParserRule[] anyChar = rulesForNull == null || rulesForNull.isEmpty()
+                ? NO_RULES : rulesForNull.toArray(new ParserRule[rulesForNull.size()]);
+
+        ParserRule[][] table = new ParserRule[RULE_TABLE_SIZE][];
+        for (int i = 0; i < RULE_TABLE_SIZE; i++) {
+            table[i] = mergeRules(ruleMap.get(Character.toUpperCase((char) i)), anyChar);
+        }
+
+        SparseArray<ParserRule[]> fallback = new SparseArray<ParserRule[]>();
+        for (Map.Entry<Character, List<ParserRule>> entry : ruleMap.entrySet()) {
+            Character key = entry.getKey();
+            if (key != null && key >= RULE_TABLE_SIZE)
+                fallback.put(key, mergeRules(entry.getValue(), anyChar));
         }
+
+        rulesForAnyChar = anyChar;
+        ruleFallback = fallback;
+        ruleTable = table;
+        return table;
+    } //}}}
+
+    //{{{ mergeRules() method
+    private static ParserRule[] mergeRules(List<ParserRule> rulesForKey, ParserRule[] anyChar) {
+        if (rulesForKey == null || rulesForKey.isEmpty())
+            return anyChar;
+        int size = rulesForKey.size();
+        ParserRule[] rules = rulesForKey.toArray(new ParserRule[size + anyChar.length]);
+        System.arraycopy(anyChar, 0, rules, size, anyChar.length);
+        return rules;
     } //}}}
 
     //{{{ getRuleCount() method
@@ -293,6 +332,16 @@ public class ParserRuleSet {
 
     private final Map<Character, List<ParserRule>> ruleMap;
 
+    private static final int RULE_TABLE_SIZE = 256;
+    private static final ParserRule[] NO_RULES = new ParserRule[0];
+    /**
+     * 由 ruleMap 生成的查找表，规则改变后置为 null，下次查找时重新生成。
+     * 最后才赋值这个字段，读到它不为 null 时另外两个字段也已经生成好了
+     */
+    private volatile ParserRule[][] ruleTable;
+    private SparseArray<ParserRule[]> ruleFallback;
+    private ParserRule[] rulesForAnyChar;
+
     private final List<ParserRuleSet> imports;
 
     /**
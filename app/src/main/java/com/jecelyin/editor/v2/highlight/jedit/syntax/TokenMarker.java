@@ -10,7 +10,6 @@ import com.jecelyin.editor.v2.highlight.jedit.util.TextUtilities;
 import java.lang.ref.WeakReference;
 import java.util.Arrays;
 import java.util.Hashtable;
-import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.regex.Matcher;
@@ -167,8 +166,8 @@ public class TokenMarker {
 
             boolean c = false;
             //{{{ check every rule
-            Character ch = line.array[pos];
-            List<ParserRule> rules = context.rules.getRules(ch);
+            char ch = line.array[pos];
+            ParserRule[] rules = context.rules.getRules(ch);
             for (ParserRule rule : rules) {
                 // stop checking rules if there was a match
                 if (handleRuleStart(rule)) {
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.editor.v2.io;
+
+import android.content.Context;
+
+import com.jecelyin.common.utils.L;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 编辑日志：把保存点之后的每次修改（位置，删除长度，插入的文字）追加到日志文件，
+ * 程序崩溃后重新打开文件时可以把这些修改重放到上次保存的文件上。
+ * 只记录修改的部分，比定时整个保存大文件便宜得多
+ *
+ * 日志头记录了文件的大小、修改时间和读入时的编码，文件在外面被改过或者换了编码时日志就作废
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+public class EditJournal {
+    private final static int MAGIC = 0x39324A32; //92J2
+    /**
+     * 所有文档共用一个写日志的线程，记录按提交的顺序写入
+     */
+    private final static ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final File journalDir;
+    /**
+     * 当前记录的日志文件，null 表示没有在记录
+     */
+    private File journalFile;
+    /**
+     * 只在写日志的线程中访问
+     */
+    private FileOutputStream output;
+
+    public static class Record {
+        public final int offset;
+        public final int deleteLength;
+        public final String text;
+
+        Record(int offset, int deleteLength, String text) {
+            this.offset = offset;
+            this.deleteLength = deleteLength;
+            this.text = text;
+        }
+    }
+
+    public EditJournal(Context context) {
+        journalDir = getJournalDir(context);
+    }
+
+    private static File getJournalDir(Context context) {
+        return new File(context.getFilesDir(), "journal");
+    }
+
+    private static File getJournalFile(File journalDir, File file) {
+        return new File(journalDir, Integer.toHexString(file.getAbsolutePath().hashCode()) + ".journal");
+    }
+
+    /**
+     * 文本和文件内容一致时调用，清空旧的日志，之后的修改都相对于现在的文件
+     */
+    public void reset(File file, final String encoding) {
+        final File journal = getJournalFile(journalDir, file);
+        final String path = file.getAbsolutePath();
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        journalFile = journal;
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeOutput();
+                try {
+                    if (!journalDir.isDirectory() && !journalDir.mkdirs())
+                        throw new IOException("Couldn't create " + journalDir);
+                    output = new FileOutputStream(journal, false);
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    out.writeInt(MAGIC);
+                    out.writeUTF(path);
+                    out.writeLong(length);
+                    out.writeLong(lastModified);
+                    out.writeUTF(encoding == null ? "" : encoding);
+                    output.write(bytes.toByteArray());
+                } catch (IOException e) {
+                    L.e(e);
+                    closeOutput();
+                }
+            }
+        });
+    }
+
+    /**
+     * 在已有的日志后面继续记录，比如界面重建后文本还是重建前的内容时
+     *
+     * @return 日志不存在时返回 false，不会开始记录
+     */
+    public boolean resume(File file) {
+        final File journal = getJournalFile(journalDir, file);
+        if (!journal.isFile())
+            return false;
+        journalFile = journal;
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeOutput();
+                try {
+                    output = new FileOutputStream(journal, true);
+                } catch (IOException e) {
+                    L.e(e);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 在UI线程中调用，只复制插入的文字，写文件在后台进行
+     */
+    public void append(final int offset, final int deleteLength, CharSequence s, int start, int end) {
+        if (journalFile == null)
+            return;
+        final String text = s.subSequence(start, end).toString();
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (output == null)
+                    return;
+                try {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream(12 + text.length() * 2);
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    out.writeInt(offset);
+                    out.writeInt(deleteLength);
+                    out.writeInt(text.length());
+                    //按 UTF-16 写，半个代理对也能原样恢复
+                    out.writeChars(text);
+                    //一条记录一次写入，进程崩溃时最多丢掉最后一条
+                    output.write(bytes.toByteArray());
+                } catch (IOException e) {
+                    L.e(e);
+                    closeOutput();
+                }
+            }
+        });
+    }
+
+    /**
+     * 停止记录，保留日志文件
+     */
+    public void stop() {
+        if (journalFile == null)
+            return;
+        journalFile = null;
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeOutput();
+            }
+        });
+    }
+
+    /**
+     * 停止记录并删除日志，比如用户关闭了文档
+     */
+    public void delete() {
+        final File journal = journalFile;
+        if (journal == null)
+            return;
+        deleteJournal(journal);
+    }
+
+    /**
+     * 停止记录并删除这个文件的日志，比如放弃修改重新读入文件时
+     */
+    public void delete(File file) {
+        deleteJournal(getJournalFile(journalDir, file));
+    }
+
+    private void deleteJournal(final File journal) {
+        journalFile = null;
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeOutput();
+                if (journal.exists() && !journal.delete())
+                    L.d("Couldn't delete " + journal);
+            }
+        });
+    }
+
+    private void closeOutput() {
+        if (output == null)
+            return;
+        try {
+            output.close();
+        } catch (IOException e) {
+            //ignore
+        }
+        output = null;
+    }
+
+    /**
+     * 读取文件的编辑日志，可以在后台线程中调用
+     *
+     * @return 没有日志，文件在日志之后被改过，或者编码不同时返回 null
+     */
+    public static List<Record> read(Context context, File file, String encoding) {
+        File journal = getJournalFile(getJournalDir(context), file);
+        if (!journal.isFile())
+            return null;
+
+        ArrayList<Record> records = new ArrayList<>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+            if (in.readInt() != MAGIC
+                    || !file.getAbsolutePath().equals(in.readUTF())
+                    || in.readLong() != file.length()
+                    || in.readLong() != file.lastModified()
+                    || !in.readUTF().equals(encoding == null ? "" : encoding))
+                return null;
+
+            for (;;) {
+                int offset = in.readInt();
+                int deleteLength = in.readInt();
+                int length = in.readInt();
+                if (offset < 0 || deleteLength < 0 || length < 0 || length > journal.length())
+                    break;
+                char[] chars = new char[length];
+                for (int i = 0; i < length; i++) {
+                    chars[i] = in.readChar();
+                }
+                records.add(new Record(offset, deleteLength, new String(chars)));
+            }
+        } catch (EOFException e) {
+            //最后一条可能没写完，丢掉
+        } catch (IOException e) {
+            L.e(e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    //ignore
+                }
+            }
+        }
+        return records.isEmpty() ? null : records;
+    }
+}
@@ -23,41 +23,185 @@ import android.text.TextUtils;
 import com.jecelyin.common.utils.L;
 import com.jecelyin.editor.v2.core.detector.CharsetDetector;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
+ * 只读文件开头和中间均匀分布的几块来检测编码，先看 BOM 和是不是合法的 UTF-8，
+ * 都不是再交给 jchardet。结果按路径、修改时间和大小缓存，文件没变时不用再读
+ *
  * @author Jecelyin Peng <jecelyin@gmail.com>
  */
 
 public class FileEncodingDetector {
     public final static String DEFAULT_ENCODING = "UTF-8";
 
+    private final static int HEAD_SIZE = 64 * 1024;
+    private final static int BLOCK_SIZE = 8 * 1024;
+    private final static int BLOCK_COUNT = 4;
+    private final static int CACHE_SIZE = 256;
+
+    private final static LinkedHashMap<String, CacheEntry> CACHE = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static class CacheEntry {
+        final long lastModified;
+        final long length;
+        final String encoding;
+
+        CacheEntry(long lastModified, long length, String encoding) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.encoding = encoding;
+        }
+    }
+
     public static String detectEncoding(File file) {
-//        CharsetDetector detector = new CharsetDetector();
-//        try {
-//            detector.setText(new BufferedInputStream(new FileInputStream(file)));
-//        } catch (IOException e) {
-//            e.printStackTrace();
-//        }
-//        CharsetMatch detect = detector.detect();
-//        if(detect == null)
-//            return DEFAULT_ENCODING;
-//        String encoding = detect.getName();
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        synchronized (CACHE) {
+            CacheEntry entry = CACHE.get(path);
+            if (entry != null && entry.lastModified == lastModified && entry.length == length)
+                return entry.encoding;
+        }
+
         String encoding = null;
         try {
-            BufferedInputStream bufferedInputStream = new BufferedInputStream(new FileInputStream(file));
-            encoding = CharsetDetector.detect(bufferedInputStream);
-            bufferedInputStream.close();
-
+            encoding = detectSample(file, length);
         } catch (Exception e) {
             L.e(e);
         }
         if(TextUtils.isEmpty(encoding)) {
-            encoding = DEFAULT_ENCODING;
+            //读取失败的不缓存
+            return DEFAULT_ENCODING;
         }
 
+        synchronized (CACHE) {
+            CACHE.put(path, new CacheEntry(lastModified, length, encoding));
+        }
         return encoding;
     }
+
+    private static String detectSample(File file, long length) throws IOException {
+        boolean whole = length <= HEAD_SIZE + BLOCK_SIZE * BLOCK_COUNT;
+        byte[] buf = new byte[whole ? (int) length : HEAD_SIZE + BLOCK_SIZE * BLOCK_COUNT];
+        //每一块在 buf 中的结束位置
+        int[] ends = new int[whole ? 1 : BLOCK_COUNT + 1];
+        int len = 0;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (whole) {
+                len = read(raf, 0, buf, 0, buf.length);
+                ends[0] = len;
+            } else {
+                len = read(raf, 0, buf, 0, HEAD_SIZE);
+                ends[0] = len;
+                //其余几块均匀分布在开头之后，最后一块读到文件末尾
+                long stride = (length - HEAD_SIZE) / BLOCK_COUNT;
+                for (int i = 1; i <= BLOCK_COUNT; i++) {
+                    long pos = HEAD_SIZE + stride * i - BLOCK_SIZE;
+                    len += read(raf, pos, buf, len, BLOCK_SIZE);
+                    ends[i] = len;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+
+        String encoding = detectBom(buf, len);
+        if (encoding != null)
+            return encoding;
+
+        //只有 ASCII 时和 jchardet 一样当作 UTF-8
+        boolean utf8 = true;
+        int start = 0;
+        for (int i = 0; i < ends.length && utf8; i++) {
+            //采样的块除了文件开头，两端都可能切在一个字符中间
+            utf8 = isUtf8(buf, start, ends[i], i > 0, !whole);
+            start = ends[i];
+        }
+        if (utf8)
+            return "UTF-8";
+
+        return CharsetDetector.detect(buf, len);
+    }
+
+    private static int read(RandomAccessFile raf, long pos, byte[] buf, int offset, int count) throws IOException {
+        raf.seek(pos);
+        int total = 0;
+        int n;
+        while (total < count && (n = raf.read(buf, offset + total, count - total)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+
+    private static String detectBom(byte[] buf, int len) {
+        if (len >= 3 && (buf[0] & 0xff) == 0xEF && (buf[1] & 0xff) == 0xBB && (buf[2] & 0xff) == 0xBF)
+            return "UTF-8";
+        if (len >= 2 && (buf[0] & 0xff) == 0xFE && (buf[1] & 0xff) == 0xFF)
+            return "UTF-16BE";
+        if (len >= 2 && (buf[0] & 0xff) == 0xFF && (buf[1] & 0xff) == 0xFE)
+            return "UTF-16LE";
+        return null;
+    }
+
+    /**
+     * 严格检查 UTF-8：不允许过长编码、代理区和超出 U+10FFFF 的字符
+     *
+     * @param cutStart 块的开头可能在一个字符中间，跳过开头的后续字节
+     * @param cutEnd 块的结尾可能在一个字符中间，不完整的最后一个字符不算错
+     */
+    private static boolean isUtf8(byte[] buf, int start, int end, boolean cutStart, boolean cutEnd) {
+        int i = start;
+        if (cutStart) {
+            for (int n = 0; n < 3 && i < end && (buf[i] & 0xC0) == 0x80; n++) {
+                i++;
+            }
+        }
+        while (i < end) {
+            int b = buf[i] & 0xff;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            int n;
+            int min = 0x80, max = 0xBF;
+            if (b >= 0xC2 && b <= 0xDF) {
+                n = 1;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                n = 2;
+                if (b == 0xE0)
+                    min = 0xA0;
+                else if (b == 0xED)
+                    max = 0x9F;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                n = 3;
+                if (b == 0xF0)
+                    min = 0x90;
+                else if (b == 0xF4)
+                    max = 0x8F;
+            } else {
+                return false;
+            }
+            for (int j = 1; j <= n; j++) {
+                if (i + j >= end)
+                    return cutEnd;
+                int c = buf[i + j] & 0xff;
+                if (j == 1 ? (c < min || c > max) : (c & 0xC0) != 0x80)
+                    return false;
+            }
+            i += n + 1;
+        }
+        return true;
+    }
 }
@@ -22,65 +22,145 @@ import android.text.TextUtils;
 
 import com.jecelyin.common.utils.L;
 import com.jecelyin.editor.v2.core.text.SpannableStringBuilder;
-import com.jecelyin.editor.v2.core.util.GrowingArrayUtils;
+import com.jecelyin.editor.v2.core.util.ArrayUtils;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 
 /**
+ * 分块读取文件：每次解码 {@link #BUFFER_SIZE} 个字符，直接写入最终交给
+ * {@link SpannableStringBuilder} 的数组，避免按文件长度两倍预分配和再次复制
+ *
  * @author Jecelyin Peng <jecelyin@gmail.com>
  */
 public class FileReader {
+    private final static int BUFFER_SIZE = 16*1024;
+    /**
+     * 首屏预览的字符数
+     */
+    private final static int PREVIEW_SIZE = 4*1024;
+    /**
+     * 给编辑器留下的间隙，避免刚打开就扩容
+     */
+    private final static int GAP_SIZE = 1024;
+
     private SpannableStringBuilder ssb = null;
     private File file;
     private String encoding;
     private int lineNumber;
-//    private int BUFFER_SIZE = 8192;
-    private final static int BUFFER_SIZE = 16*1024;
+    private OnReadProgressListener progressListener;
+
+    public interface OnReadProgressListener {
+        /**
+         * 在读取线程中调用
+         * @param preview 第一次读到足够首屏显示的内容时不为null，之后都为null
+         * @param progress 0-100
+         */
+        void onReadProgress(CharSequence preview, int progress);
+    }
 
     public FileReader(File file, String encodingName) {
         this.file = file;
         this.encoding = encodingName;
     }
 
+    public void setOnReadProgressListener(OnReadProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
     public boolean read() {
+        LineNumberReader reader = null;
         try {
             if(TextUtils.isEmpty(encoding))
                 encoding = FileEncodingDetector.detectEncoding(file);
 
             L.d(file.getPath()+" encoding is "+encoding);
-            LineNumberReader reader = new LineNumberReader(new InputStreamReader(new FileInputStream(file), encoding));
-//            String line, firstLine = null;
-//            while ((line = reader.readLine()) != null) {
-//                if (firstLine == null && !line.trim().isEmpty())
-//                    firstLine = line;
-//
-//                int offset = buffer.getOffset();
-//                if(offset < 0)
-//                    throw new ArrayIndexOutOfBoundsException(offset);
-//                //仅支持\r\n , \n两种结束符
-//                buffer.append(offset, line + (reader.isLastWasCR() ? "\r\n" : "\n"));
-//            }
-            char[] buf = new char[BUFFER_SIZE];
+            FileInputStream fis = new FileInputStream(file);
+            FileChannel channel = fis.getChannel();
+            long total = Math.max(1, channel.size());
+            reader = new LineNumberReader(new InputStreamReader(fis, encoding), BUFFER_SIZE);
+
+            char[] text = ArrayUtils.newUnpaddedCharArray(estimateCapacity(total, encoding));
+            int length = 0;
             int len;
-            CharArrayBuffer arrayBuffer = new CharArrayBuffer(GrowingArrayUtils.growSize((int)file.length()));
-            while ((len = reader.read(buf, 0, BUFFER_SIZE)) != -1) {
-                arrayBuffer.append(buf, 0, len);
+            int lastProgress = -1;
+            boolean previewed = false;
+            while (true) {
+                if (text.length - length < BUFFER_SIZE) {
+                    text = grow(text, length);
+                }
+                if ((len = reader.read(text, length, BUFFER_SIZE)) == -1)
+                    break;
+                length += len;
+
+                if (progressListener == null)
+                    continue;
+                CharSequence preview = null;
+                if (!previewed && length >= PREVIEW_SIZE) {
+                    previewed = true;
+                    preview = new String(text, 0, length);
+                }
+                int progress = (int) (channel.position() * 100 / total);
+                if (preview != null || progress != lastProgress) {
+                    lastProgress = progress;
+                    progressListener.onReadProgress(preview, Math.min(100, progress));
+                }
             }
 
             lineNumber = reader.getLineNumber() + 1;
-            reader.close();
 
-            ssb = new SpannableStringBuilder(arrayBuffer.buffer(), 0, arrayBuffer.length());
+            //预估的容量过大时(多字节编码)收缩一下，否则多余部分就直接作为编辑器的间隙
+            if (text.length - length > length + GAP_SIZE) {
+                char[] trimmed = ArrayUtils.newUnpaddedCharArray(length + GAP_SIZE);
+                System.arraycopy(text, 0, trimmed, 0, length);
+                text = trimmed;
+            }
+            ssb = new SpannableStringBuilder(text, 0, length);
 
             return true;
         } catch (Exception e) {
             L.e(e);
             return false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (Exception e) {
+                    L.e(e);
+                }
+            }
         }
     }
 
+    /**
+     * 按编码估算字符数：单字节编码每字节最多一个字符，不会超出文件长度太多
+     */
+    private static int estimateCapacity(long bytes, String encoding) {
+        float charsPerByte;
+        try {
+            charsPerByte = Charset.forName(encoding).newDecoder().maxCharsPerByte();
+        } catch (Exception e) {
+            charsPerByte = 1f;
+        }
+        long capacity = (long) (bytes * Math.min(1f, charsPerByte)) + GAP_SIZE + BUFFER_SIZE;
+        return (int) Math.min(capacity, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * 只按1.5倍增长，不要像 GrowingArrayUtils.growSize 那样直接翻倍
+     */
+    private static char[] grow(char[] text, int length) {
+        long newSize = Math.max((long) text.length + (text.length >> 1), (long) length + BUFFER_SIZE + GAP_SIZE);
+        if (newSize > Integer.MAX_VALUE - 8)
+            throw new OutOfMemoryError("File is too large");
+        char[] newText = ArrayUtils.newUnpaddedCharArray((int) newSize);
+        System.arraycopy(text, 0, newText, 0, length);
+        return newText;
+    }
+
     public String getEncoding() {
         return encoding;
     }
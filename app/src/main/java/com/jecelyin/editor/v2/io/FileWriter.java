@@ -19,14 +19,17 @@
 package com.jecelyin.editor.v2.io;
 
 import android.os.AsyncTask;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.text.Editable;
 
 import com.jecelyin.android.file_explorer.io.RootFile;
-import com.jecelyin.common.utils.IOUtils;
 import com.stericson.RootTools.RootTools;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
@@ -38,7 +41,6 @@ public class FileWriter extends AsyncTask<Editable, Void, Exception> {
     private final String encoding;
     private final File file;
     private final static int BUFFER_SIZE = 16*1024;
-    private final File backupFile;
     private final File orgiFile;
     private final boolean keepBackupFile;
     private FileWriteListener fileWriteListener;
@@ -51,7 +53,6 @@ public class FileWriter extends AsyncTask<Editable, Void, Exception> {
     public FileWriter(File file, File orgiFile, String encoding, boolean keepBackupFile) {
         this.file = file;
         this.orgiFile = orgiFile;
-        this.backupFile = makeBackupFile(file);
         this.encoding = encoding;
         this.keepBackupFile = keepBackupFile;
     }
@@ -64,25 +65,79 @@ public class FileWriter extends AsyncTask<Editable, Void, Exception> {
         this.fileWriteListener = fileWriteListener;
     }
 
+    /**
+     * 先把内容写到同一目录下的临时文件并 fsync，再重命名覆盖原文件，
+     * 保存中途出错或断电时原文件不会被写坏。备份用硬链接或重命名，不再整个复制一遍
+     */
     @Override
     protected Exception doInBackground(Editable... params) {
+        Editable text = params[0];
 
-//        if(backupFile.exists()) {
-//            if(!backupFile.delete()) {
-//                return new IOException("Couldn't remove old backup file " + backupFile);
-//            }
-//        }
-
-        if(file.isFile() && (orgiFile == null
-                ? !IOUtils.copyFile(file, backupFile)
-                : !RootTools.copyFile(file.getPath(), backupFile.getPath(), true, true))) {
-            return new IOException("Couldn't copy file " + file
-                    + " to backup file " + backupFile);
+        // 注意路径可能是 symbolic links，要替换的是链接指向的文件
+        File target;
+        try {
+            target = file.getCanonicalFile();
+        } catch (IOException e) {
+            target = file;
         }
 
-        Editable text = params[0];
+        File tempFile = makeTempFile(target);
+        try {
+            writeText(tempFile, text);
+        } catch (FileNotFoundException e) {
+            // 目录不可写时建不了临时文件，只能直接写原文件
+            tempFile = null;
+        } catch (Exception e) {
+            tempFile.delete();
+            return e;
+        }
+
+        try {
+            if (tempFile == null) {
+                writeText(target, text);
+            } else {
+                if (target.isFile()) {
+                    copyMode(target, tempFile);
+                    if (keepBackupFile)
+                        makeBackup(target);
+                }
+                if (!tempFile.renameTo(target)) {
+                    writeText(target, text);
+                }
+            }
+        } catch (Exception e) {
+            return e;
+        } finally {
+            //重命名成功后临时文件已经不在了，失败或者出错时不能留下
+            if (tempFile != null && tempFile.exists())
+                tempFile.delete();
+        }
+
+        if (orgiFile != null && !RootTools.copyFile(file.getAbsolutePath() , (new RootFile(orgiFile.getPath())).getAbsolutePath(), true, false)) {
+            return new IOException("Can't copy " + file.getPath() + " content to " + orgiFile.getPath());
+        }
+        return null;
+    }
+
+    /**
+     * 替换前把原文件的权限复制给临时文件，避免 0600 之类的文件保存后变成默认权限
+     */
+    private static void copyMode(File from, File to) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                Os.chmod(to.getPath(), Os.stat(from.getPath()).st_mode & 07777);
+                return;
+            } catch (ErrnoException e) {
+                //存储卡等不支持权限的文件系统
+            }
+        }
+        to.setExecutable(from.canExecute(), false);
+    }
+
+    private void writeText(File dest, Editable text) throws IOException {
+        FileOutputStream fos = new FileOutputStream(dest);
         try {
-            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), encoding), BUFFER_SIZE);
+            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos, encoding), BUFFER_SIZE);
             char[] buffer = new char[BUFFER_SIZE]; //16kb
             int size = text.length();
             if (size > 0) {
@@ -100,22 +155,29 @@ public class FileWriter extends AsyncTask<Editable, Void, Exception> {
                     end += BUFFER_SIZE;
                 }
             }
-
-            bw.close();
-        } catch (Exception e) {
-            return e;
+            bw.flush();
+            //确保数据真正写到存储上再去替换原文件
+            fos.getFD().sync();
+        } finally {
+            fos.close();
         }
+    }
 
-        // 注意路径可能是 symbolic links
-        if (orgiFile != null && !RootTools.copyFile(file.getAbsolutePath() , (new RootFile(orgiFile.getPath())).getAbsolutePath(), true, false)) {
-            return new IOException("Can't copy " + file.getPath() + " content to " + orgiFile.getPath());
-        }
-        if(file.exists()) {
-            if(!keepBackupFile && backupFile.exists() && !backupFile.delete()) {
-                return new IOException("Couldn't remove backup file " + backupFile);
+    private void makeBackup(File target) throws IOException {
+        File backupFile = makeBackupFile(target);
+        if (backupFile.exists() && !backupFile.delete())
+            throw new IOException("Couldn't remove old backup file " + backupFile);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                Os.link(target.getPath(), backupFile.getPath());
+                return;
+            } catch (ErrnoException e) {
+                //FAT 格式的存储卡等不支持硬链接
             }
         }
-        return null;
+        if (!target.renameTo(backupFile))
+            throw new IOException("Couldn't rename file " + target + " to backup file " + backupFile);
     }
 
     @Override
@@ -132,4 +194,8 @@ public class FileWriter extends AsyncTask<Editable, Void, Exception> {
         return new File(file.getParent(), ".920bak." + file.getName());
     }
 
+    private static File makeTempFile(File file) {
+        return new File(file.getParent(), ".920tmp." + file.getName());
+    }
+
 }
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.editor.v2.io;
+
+import com.jecelyin.editor.v2.core.util.ArrayUtils;
+import com.jecelyin.editor.v2.core.util.GrowingArrayUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * 只读的超大文件读取：通过 {@link MappedByteBuffer} 访问文件，后台建立稀疏的行偏移索引，
+ * 每次只解码需要显示的那几行，内存占用与文件大小无关
+ *
+ * 只支持换行符是单字节 '\n' 的编码（UTF-8, GBK, ISO-8859-x 等）
+ *
+ * 超过 {@link #MAX_LINE_BYTES} 的行会被拆成多行，行号也按拆开后的算，
+ * 拆分位置只由文件内容决定，建立索引和读取时拆出来的结果总是一样的
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+public class HugeFileReader {
+    /**
+     * 每次映射的区域大小
+     */
+    private final static int REGION_SIZE = 32 * 1024 * 1024;
+    /**
+     * 每隔多少行记录一次偏移
+     */
+    private final static int INDEX_INTERVAL = 128;
+    /**
+     * 一行最多多少字节，更长的拆成多行
+     */
+    private final static int MAX_LINE_BYTES = 16 * 1024;
+    /**
+     * 一次最多解码多少字节，换行很少的文件也不会一次解码出巨大的字符串
+     */
+    private final static int MAX_WINDOW_BYTES = 2 * 1024 * 1024;
+
+    private final File file;
+    private final Charset charset;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long size;
+    private final boolean utf8;
+
+    private final Region region;
+
+    /**
+     * checkpoints[i] 是第 i * INDEX_INTERVAL 行的起始字节偏移
+     */
+    private long[] checkpoints = ArrayUtils.newUnpaddedLongArray(64);
+    private int checkpointCount;
+    private volatile int indexedLines;
+    private volatile boolean indexCompleted;
+    private volatile boolean closed;
+
+    public HugeFileReader(File file, String encoding) throws IOException {
+        this.file = file;
+        this.charset = Charset.forName(encoding);
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        size = channel.size();
+        utf8 = "UTF-8".equals(charset.name());
+        region = new Region(channel, size);
+        checkpoints[0] = 0;
+        checkpointCount = 1;
+    }
+
+    public static boolean isSupportedEncoding(String encoding) {
+        try {
+            Charset charset = Charset.forName(encoding);
+            byte[] lf = "\n".getBytes(charset);
+            return lf.length == 1 && lf[0] == '\n';
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getEncoding() {
+        return charset.name();
+    }
+
+    /**
+     * 在后台线程中扫描整个文件建立行索引，可以多次调用，已经索引过的部分不会再扫描
+     */
+    public void buildIndex() throws IOException {
+        long offset;
+        int line;
+        synchronized (this) {
+            if (indexCompleted)
+                return;
+            line = (checkpointCount - 1) * INDEX_INTERVAL;
+            offset = checkpoints[checkpointCount - 1];
+        }
+
+        //和 readLines 分开映射，不需要拿锁
+        Region bytes = new Region(channel, size);
+        while (offset < size && !closed) {
+            long end = nextLineEnd(bytes, offset);
+            //没有换行符的最后一行在下面统一加上
+            if (end == size && bytes.get(end - 1) != '\n')
+                break;
+            offset = end;
+            line++;
+            if (line % INDEX_INTERVAL == 0) {
+                synchronized (this) {
+                    checkpoints = GrowingArrayUtils.append(checkpoints, checkpointCount, offset);
+                    checkpointCount++;
+                }
+                indexedLines = line;
+            }
+        }
+
+        if (!closed) {
+            //最后一行没有换行符也算一行
+            indexedLines = line + 1;
+            indexCompleted = true;
+        }
+    }
+
+    public boolean isIndexCompleted() {
+        return indexCompleted;
+    }
+
+    /**
+     * @return 目前已经可以访问的行数，索引完成后就是文件的总行数
+     */
+    public int getLineCount() {
+        return indexedLines;
+    }
+
+    /**
+     * 解码从 firstLine 开始的最多 maxLines 行，超过 {@link #MAX_WINDOW_BYTES} 后不再读后面的行
+     */
+    public synchronized String readLines(int firstLine, int maxLines) throws IOException {
+        if (firstLine < 0 || firstLine / INDEX_INTERVAL >= checkpointCount)
+            throw new IndexOutOfBoundsException("line " + firstLine + " has not been indexed");
+
+        //索引还没完成时允许读到已索引范围之外，遇到文件结尾自然会停下
+        int lines = indexCompleted ? Math.min(maxLines, indexedLines - firstLine) : maxLines;
+        long start = checkpoints[firstLine / INDEX_INTERVAL];
+        for (int i = firstLine % INDEX_INTERVAL; i > 0 && start < size; i--) {
+            start = nextLineEnd(region, start);
+        }
+        if (start >= size)
+            return "";
+
+        //每行不超过 MAX_LINE_BYTES + 1 (换行符)，一次映射就够了
+        ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(size - start, MAX_WINDOW_BYTES + MAX_LINE_BYTES + 1));
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        StringBuilder sb = new StringBuilder();
+        long pieceStart = start;
+        long end = start;
+        boolean split = false;
+        for (int i = 0; i < lines && end < size && end - start < MAX_WINDOW_BYTES; i++) {
+            end = nextLineEnd(region, end);
+            split = region.get(end - 1) != '\n';
+            if (split && end < size) {
+                //拆开的行在拆分的地方补一个换行符，前面连续的整行一起解码
+                decode(decoder, window, pieceStart - start, end - start, sb);
+                sb.append('\n');
+                pieceStart = end;
+            }
+        }
+        if (!split && end < size) {
+            //不要把最后一个换行符也带上，否则会多出一个空行
+            end--;
+        }
+        decode(decoder, window, pieceStart - start, end - start, sb);
+        if (split && end < size) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return 从 start 开始的这一行（包括换行符）的结束位置，超过 {@link #MAX_LINE_BYTES} 时是拆分的位置
+     */
+    private long nextLineEnd(Region bytes, long start) throws IOException {
+        long limit = Math.min(size, start + MAX_LINE_BYTES);
+        long breakAt = -1;
+        for (long offset = start; offset < limit; offset++) {
+            byte b = bytes.get(offset);
+            if (b == '\n')
+                return offset + 1;
+            //小于 0x40 的字节在支持的编码里都只能是单字节字符，不会是多字节字符的一部分
+            if (b >= 0 && b < 0x40)
+                breakAt = offset + 1;
+        }
+        if (limit == size)
+            return size;
+        if (bytes.get(limit) == '\n')
+            return limit + 1;
+        //尽量在空格、标点之类的后面拆开
+        if (breakAt - start >= MAX_LINE_BYTES / 2)
+            return breakAt;
+        long end = limit;
+        if (utf8) {
+            //退到 UTF-8 字符的开头
+            while (end > start + 1 && (bytes.get(end) & 0xC0) == 0x80)
+                end--;
+            return end;
+        }
+        //其它编码只能从行首解码一遍，找到最后一个完整字符的结束位置
+        int length = (int) (limit - start);
+        ByteBuffer in = ByteBuffer.allocate(length);
+        for (long offset = start; offset < limit; offset++) {
+            in.put(bytes.get(offset));
+        }
+        in.flip();
+        charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(in, CharBuffer.allocate(length), false);
+        return start + Math.max(1, in.position());
+    }
+
+    private static void decode(CharsetDecoder decoder, ByteBuffer window, long start, long end, StringBuilder sb) throws IOException {
+        if (end <= start)
+            return;
+        ByteBuffer bytes = window.duplicate();
+        bytes.limit((int) end);
+        bytes.position((int) start);
+        sb.append(decoder.decode(bytes));
+    }
+
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            region.clear();
+            try {
+                raf.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+
+    /**
+     * 按 {@link #REGION_SIZE} 分段映射文件，逐字节读取
+     */
+    private static class Region {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer buf;
+        private long start;
+
+        Region(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        byte get(long offset) throws IOException {
+            if (buf == null || offset < start || offset >= start + buf.limit()) {
+                start = offset;
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+            }
+            return buf.get((int) (offset - start));
+        }
+
+        void clear() {
+            buf = null;
+        }
+    }
+}
@@ -21,43 +21,60 @@ package com.jecelyin.editor.v2.ui;
 import android.content.Context;
 import android.os.AsyncTask;
 import android.text.Editable;
-import android.text.Spannable;
+import android.text.TextUtils;
 import android.text.TextWatcher;
-import android.text.style.ForegroundColorSpan;
 
 import com.jecelyin.common.utils.L;
-import com.jecelyin.common.utils.StringUtils;
 import com.jecelyin.common.utils.SysUtils;
 import com.jecelyin.common.utils.UIUtils;
 import com.jecelyin.editor.v2.Pref;
 import com.jecelyin.editor.v2.R;
 import com.jecelyin.editor.v2.common.ReadFileListener;
 import com.jecelyin.editor.v2.common.SaveListener;
+import com.jecelyin.editor.v2.core.content.UndoManager;
+import com.jecelyin.editor.v2.core.text.Layout;
 import com.jecelyin.editor.v2.core.text.SpannableStringBuilder;
+import com.jecelyin.editor.v2.core.widget.JecEditText;
 import com.jecelyin.editor.v2.highlight.Buffer;
-import com.jecelyin.editor.v2.highlight.HighlightInfo;
+import com.jecelyin.editor.v2.highlight.HighlightEngine;
 import com.jecelyin.editor.v2.highlight.jedit.Catalog;
 import com.jecelyin.editor.v2.highlight.jedit.LineManager;
 import com.jecelyin.editor.v2.highlight.jedit.Mode;
 import com.jecelyin.editor.v2.highlight.jedit.StyleLoader;
-import com.jecelyin.editor.v2.highlight.jedit.syntax.DefaultTokenHandler;
 import com.jecelyin.editor.v2.highlight.jedit.syntax.ModeProvider;
 import com.jecelyin.editor.v2.highlight.jedit.syntax.SyntaxStyle;
-import com.jecelyin.editor.v2.highlight.jedit.syntax.Token;
+import com.jecelyin.editor.v2.io.FileEncodingDetector;
+import com.jecelyin.editor.v2.io.EditJournal;
 import com.jecelyin.editor.v2.io.FileReader;
+import com.jecelyin.editor.v2.io.HugeFileReader;
 import com.jecelyin.editor.v2.task.SaveTask;
 import com.stericson.RootTools.RootTools;
 
 import java.io.File;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * @author Jecelyin Peng <jecelyin@gmail.com>
  */
-public class Document implements ReadFileListener, TextWatcher {
+public class Document implements ReadFileListener, TextWatcher, JecEditText.OnEditorScrollChangedListener,
+        HighlightEngine.OnHighlightChangedListener {
+    /**
+     * 超过这个大小并且超过高亮限制的文件使用只读的窗口模式打开
+     */
+    private final static long HUGE_FILE_MIN_SIZE = 16 * 1024 * 1024;
+    /**
+     * 超过这个字符数的文档改用片段表保存，避免在文档两端编辑时整块移动间隙
+     */
+    private final static int PIECE_TABLE_MIN_LENGTH = 4 * 1024 * 1024;
+    /**
+     * 新建的文档没有保存点，有内容就算修改过
+     */
+    private final static int NO_SAVE_POINT = -1;
+    /**
+     * 恢复状态前就已经修改过了，撤销栈没有保存下来，在下次保存前都算修改过
+     */
+    private final static int CHANGED_SAVE_POINT = -2;
     public static SyntaxStyle[] styles;
 
     private final EditorDelegate editorDelegate;
@@ -66,13 +83,43 @@ public class Document implements ReadFileListener, TextWatcher {
     private final Pref pref;
     private int lineNumber;
     private String encoding = "UTF-8";
-    private byte[] srcMD5;
-    private int srcLength;
+    /**
+     * 保存点时撤销栈顶状态的 id，和当前栈顶不同就说明文本改过了
+     */
+    private int savedUndoId = NO_SAVE_POINT;
+    /**
+     * 每次文本改变都加一，和保存点时相同时不用再看撤销栈
+     */
+    private int editGeneration;
+    private int savedGeneration = -1;
     private final Buffer buffer;
-    private final HashMap<Integer, ArrayList<ForegroundColorSpan>> colorSpanMap;
+    private final HighlightEngine highlightEngine;
+    private final EditJournal journal;
+    /**
+     * 上次没有保存就崩溃时留下的修改，读完文件后重放
+     */
+    private List<EditJournal.Record> journalRecords;
+    /**
+     * 标签页读入过文件或者恢复过文本，之后重新读入（比如换编码）时不再恢复日志
+     */
+    private boolean fileLoaded;
+    /**
+     * 这次读入是否需要恢复编辑日志，只在标签页第一次打开文件时恢复
+     */
+    private boolean recoverJournal;
+    /**
+     * 撤销历史文件，界面重建或者进程被杀后恢复撤销栈
+     */
+    private File undoHistoryFile;
     private File file, rootFile;
     private String modeName;
+    private Mode loadedMode;
     private boolean root;
+    /**
+     * 正在显示首屏预览，这时不做高亮
+     */
+    private boolean previewing;
+    private HugeFileWindow hugeFileWindow;
 
     public Document(Context context, EditorDelegate EditorDelegate) {
         this.editorDelegate = EditorDelegate;
@@ -81,15 +128,20 @@ public class Document implements ReadFileListener, TextWatcher {
         root = false;
 
         buffer = new Buffer(context);
-        colorSpanMap = new HashMap<>();
+        highlightEngine = new HighlightEngine(buffer);
+        journal = new EditJournal(context);
         this.saveTask = new SaveTask(context, EditorDelegate, this);
         EditorDelegate.mEditText.addTextChangedListener(this);
+        EditorDelegate.mEditText.addOnEditorScrollChangedListener(this);
+        EditorDelegate.mEditText.setSyntaxColorProvider(highlightEngine.getTokenRuns());
+        highlightEngine.setOnHighlightChangedListener(this);
     }
 
     public void onSaveInstanceState(EditorDelegate.SavedState ss) {
         ss.lineNumber = lineNumber;
-        ss.textMd5 = srcMD5;
-        ss.textLength = srcLength;
+        ss.savePoint = savedUndoId == NO_SAVE_POINT ? NO_SAVE_POINT : (isChanged() ? CHANGED_SAVE_POINT : 0);
+        ss.savedUndoId = savedUndoId;
+        ss.undoHistoryPath = saveUndoHistory();
         ss.encoding = encoding;
         ss.modeName = modeName;
         ss.file = file;
@@ -107,8 +159,11 @@ public class Document implements ReadFileListener, TextWatcher {
         if (ss.lineNumber > 0) {
             lineNumber = ss.lineNumber;
         }
-        srcMD5 = ss.textMd5;
-        srcLength = ss.textLength;
+        //恢复后撤销栈是空的，没修改过的文本对应空栈
+        savedUndoId = ss.savePoint;
+        savedGeneration = -1;
+        fileLoaded = true;
+        undoHistoryFile = ss.undoHistoryPath == null ? null : new File(ss.undoHistoryPath);
         encoding = ss.encoding;
         file = ss.file;
         rootFile = ss.rootFile;
@@ -136,39 +191,128 @@ public class Document implements ReadFileListener, TextWatcher {
             return;
         }
         this.file = file;
-        FileReader reader = new FileReader(root ? rootFile : file, encodingName);
+        //读入时的预览和最终的 setText 都不是用户的修改，读完在 markSavePoint 中重新开始记录
+        if (fileLoaded) {
+            //重新读入就放弃了现在的修改，日志也作废
+            journal.delete(file);
+        } else {
+            journal.stop();
+        }
+        recoverJournal = !fileLoaded;
+        fileLoaded = true;
+        closeHugeFile();
+        File readFile = root ? rootFile : file;
+        if (readFile.length() > Math.max(HUGE_FILE_MIN_SIZE, pref.getHighlightSizeLimit())) {
+            new OpenHugeFileTask(readFile, encodingName).execute();
+            return;
+        }
+        FileReader reader = new FileReader(readFile, encodingName);
         new ReadFileTask(reader, this).execute();
     }
 
+    private void onHugeFileOpened(File readFile, String encodingName, HugeFileReader reader) {
+        if(editorDelegate == null || editorDelegate.mEditText == null) {
+            if (reader != null)
+                reader.close();
+            return;
+        }
+        if (reader == null) {
+            //编码不支持按字节找换行，只能整个读进来
+            new ReadFileTask(new FileReader(readFile, encodingName), this).execute();
+            return;
+        }
+
+        encoding = reader.getEncoding();
+        modeName = Catalog.DEFAULT_MODE_NAME;
+        buffer.setMode(null);
+        highlightEngine.stop();
+        journal.stop();
+        savedUndoId = NO_SAVE_POINT;
+        hugeFileWindow = new HugeFileWindow(editorDelegate, reader);
+        editorDelegate.onLoadFinish();
+        hugeFileWindow.start();
+    }
+
+    private void closeHugeFile() {
+        if (hugeFileWindow == null)
+            return;
+        hugeFileWindow.close();
+        hugeFileWindow = null;
+    }
+
+    public void onDestroy() {
+        highlightEngine.stop();
+        //用户主动关闭的文档不需要再恢复
+        journal.delete();
+        if (undoHistoryFile != null) {
+            UndoManager.deleteHistory(undoHistoryFile);
+            undoHistoryFile = null;
+        }
+        closeHugeFile();
+    }
+
+    /**
+     * @return 是否以只读的窗口模式打开了超大文件
+     */
+    public boolean isHugeFile() {
+        return hugeFileWindow != null;
+    }
+
+    public HugeFileWindow getHugeFileWindow() {
+        return hugeFileWindow;
+    }
+
     @Override
     public void onStart() {
         editorDelegate.onLoadStart();
     }
 
+    @Override
+    public void onProgress(CharSequence preview, int progress) {
+        if(editorDelegate == null || editorDelegate.mEditText == null)
+            return;
+        if (preview != null) {
+            previewing = true;
+            editorDelegate.onLoadPreview(preview);
+        }
+        editorDelegate.onLoadProgress(progress);
+    }
+
     @Override
     public SpannableStringBuilder onAsyncReaded(FileReader fileReader, boolean ok) {
         Editable text = fileReader.getBuffer();
         Mode mode = ModeProvider.instance.getModeForFile(file == null ? null : file.getPath(), null, text.subSequence(0, Math.min(80, text.length())).toString());
         if(mode == null)
             mode = ModeProvider.instance.getMode(Catalog.DEFAULT_MODE_NAME);
-        modeName = mode.getName();
-        buffer.setMode(mode);
+        //在读文件的线程中先加载好语法，onDone 时就不用在UI线程中解析
+        mode.getTokenMarker();
+        //预览时UI线程还在使用buffer，到onDone再设置
+        loadedMode = mode;
 
         lineNumber = fileReader.getLineNumber();
         encoding = fileReader.getEncoding();
+        journalRecords = recoverJournal && file != null ? EditJournal.read(context, file, encoding) : null;
 
-        srcMD5 = md5(text);
-        srcLength = text.length();
+        SpannableStringBuilder ssb = (SpannableStringBuilder) text;
+        if (ssb.length() > PIECE_TABLE_MIN_LENGTH)
+            ssb.usePieceTable();
 
-        return (SpannableStringBuilder)text;
+        return ssb;
 
     }
 
     @Override
     public void onDone(SpannableStringBuilder spannableStringBuilder, boolean ok) {
+        previewing = false;
         //给回收了。。
         if(editorDelegate == null || editorDelegate.mEditText == null)
             return;
+        if(loadedMode != null) {
+            modeName = loadedMode.getName();
+            buffer.setMode(loadedMode);
+            pref.addRecentMode(modeName);
+            loadedMode = null;
+        }
         if(!ok) {
             editorDelegate.onLoadFinish();
             UIUtils.alert(context, context.getString(R.string.read_file_exception));
@@ -177,6 +321,11 @@ public class Document implements ReadFileListener, TextWatcher {
 
         editorDelegate.mEditText.setLineNumber(lineNumber);
         editorDelegate.mEditText.setText(spannableStringBuilder);
+        markSavePoint();
+        if (journalRecords != null) {
+            replayJournal(journalRecords);
+            journalRecords = null;
+        }
         editorDelegate.onLoadFinish();
 
     }
@@ -189,45 +338,46 @@ public class Document implements ReadFileListener, TextWatcher {
     @Override
     public void onTextChanged(CharSequence s, int start, int before, int count) {
 //        L.d("","onTextChanged: start=" + start + " before=" + before + " count=" + count, new Exception());
+        editGeneration++;
+        journal.append(start, before, s, start, start + count);
 
         Editable editableText = editorDelegate.getEditableText();
         buffer.setEditable(editableText);
 
+        LineManager lineManager = buffer.getLineManager();
+        int oldLineCount = lineManager.getLineCount();
         if(before > 0) {
             buffer.remove(start, before);
         }
         if(count > 0) {
-            buffer.insert(start, s.subSequence(start, start + count));
+            buffer.insert(start, count);
         }
 
-        lineNumber = buffer.getLineManager().getLineCount();
+        lineNumber = lineManager.getLineCount();
 
-        if (!pref.isHighlight() || editableText.length() > pref.getHighlightSizeLimit())
+        if (previewing || hugeFileWindow != null || !pref.isHighlight() || editableText.length() > pref.getHighlightSizeLimit()) {
+            highlightEngine.stop();
             return;
+        }
 
-        LineManager lineManager = buffer.getLineManager();
         int startLine = lineManager.getLineOfOffset(start);
         int endLine = lineManager.getLineOfOffset(start + count);
-        int lineStartOffset = lineManager.getLineStartOffset(startLine);
-        int lineEndOffset = lineManager.getLineEndOffset(endLine);
 
-        boolean canHighlight = buffer.isCanHighlight();
-        if(startLine == 0 && !canHighlight) {
+        if(startLine == 0 && !buffer.isCanHighlight()) {
             Mode mode = ModeProvider.instance.getModeForFile(file == null ? null : file.getPath(), null, s.subSequence(0, Math.min(80, s.length())).toString());
             if (mode != null)
                 modeName = mode.getName();
             buffer.setMode(mode);
         }
 
-        if (!canHighlight)
+        if (!buffer.isCanHighlight())
             return;
 
-        ForegroundColorSpan[] spans = editableText.getSpans(lineStartOffset, lineEndOffset, ForegroundColorSpan.class);
-        for(ForegroundColorSpan span : spans) {
-            editableText.removeSpan(span);
+        if (highlightEngine.isStarted()) {
+            highlightEngine.onLinesChanged(startLine, endLine, lineNumber - oldLineCount);
+        } else {
+            startHighlight();
         }
-
-        highlight(editableText, startLine, endLine);
     }
 
     @Override
@@ -235,13 +385,58 @@ public class Document implements ReadFileListener, TextWatcher {
 
     }
 
-    private final static class ReadFileTask extends AsyncTask<File, Void, SpannableStringBuilder> {
+    private final class OpenHugeFileTask extends AsyncTask<Void, Void, HugeFileReader> {
+        private final File readFile;
+        private String encodingName;
+
+        OpenHugeFileTask(File readFile, String encodingName) {
+            this.readFile = readFile;
+            this.encodingName = encodingName;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            onStart();
+        }
+
+        @Override
+        protected HugeFileReader doInBackground(Void... params) {
+            if (TextUtils.isEmpty(encodingName))
+                encodingName = FileEncodingDetector.detectEncoding(readFile);
+            if (!HugeFileReader.isSupportedEncoding(encodingName))
+                return null;
+            try {
+                return new HugeFileReader(readFile, encodingName);
+            } catch (Exception e) {
+                L.e(e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(HugeFileReader reader) {
+            onHugeFileOpened(readFile, encodingName, reader);
+        }
+    }
+
+    private final static class ReadFileTask extends AsyncTask<File, Object, SpannableStringBuilder> implements FileReader.OnReadProgressListener {
         private final ReadFileListener listener;
         private final FileReader fileReader;
 
         public ReadFileTask(FileReader reader, ReadFileListener listener) {
             this.fileReader = reader;
             this.listener = listener;
+            reader.setOnReadProgressListener(this);
+        }
+
+        @Override
+        public void onReadProgress(CharSequence preview, int progress) {
+            publishProgress(preview, progress);
+        }
+
+        @Override
+        protected void onProgressUpdate(Object... values) {
+            listener.onProgress((CharSequence) values[0], (Integer) values[1]);
         }
 
         @Override
@@ -267,9 +462,10 @@ public class Document implements ReadFileListener, TextWatcher {
         modeName = name;
 
         buffer.setMode(Catalog.getModeByName(name));
+        pref.addRecentMode(name);
         editorDelegate.getEditableText().clearSpans();
 
-        highlight(editorDelegate.getEditableText());
+        startHighlight();
     }
 
     public String getModeName() {
@@ -289,6 +485,8 @@ public class Document implements ReadFileListener, TextWatcher {
     }
 
     public int getLineNumber() {
+        if (hugeFileWindow != null)
+            return hugeFileWindow.getLineCount();
         return lineNumber;
     }
 
@@ -309,6 +507,12 @@ public class Document implements ReadFileListener, TextWatcher {
     }
 
     public void save(boolean isCluster, SaveListener listener) {
+        if (hugeFileWindow != null) {
+            if (isCluster && listener != null)
+                listener.onSaved();
+            UIUtils.toast(context, R.string.readonly_mode_not_support_this_action);
+            return;
+        }
         if (saveTask.isWriting()) {
             UIUtils.toast(context, R.string.writing);
             return;
@@ -322,6 +526,10 @@ public class Document implements ReadFileListener, TextWatcher {
     }
 
     public void saveAs() {
+        if (hugeFileWindow != null) {
+            UIUtils.toast(context, R.string.readonly_mode_not_support_this_action);
+            return;
+        }
         editorDelegate.startSaveFileSelectorActivity();
     }
 
@@ -332,148 +540,131 @@ public class Document implements ReadFileListener, TextWatcher {
     public void onSaveSuccess(File file, String encoding) {
         this.file = file;
         this.encoding = encoding;
-        srcMD5 = md5(editorDelegate.getText());
-        srcLength = editorDelegate.getText().length();
+        markSavePoint();
         editorDelegate.noticeDocumentChanged();
     }
 
-    public boolean isChanged() {
-        if(srcMD5 == null) {
-            return editorDelegate.getText().length() != 0;
+    /**
+     * 把当前文本记为和文件内容一致
+     */
+    private void markSavePoint() {
+        if (file != null && hugeFileWindow == null) {
+            journal.reset(file, encoding);
+        } else {
+            journal.stop();
         }
-        if (srcLength != editorDelegate.getEditableText().length())
-            return true;
-
-        byte[] curMD5 = md5(editorDelegate.getEditableText());
-
-        return !StringUtils.isEqual(srcMD5, curMD5);
+        savedGeneration = editGeneration;
+        UndoManager undoManager = editorDelegate.mEditText.getUndoManager();
+        //之后的输入不能再合并到保存点的撤销状态里，否则栈顶 id 不会变
+        savedUndoId = undoManager == null ? 0 : Math.max(0, undoManager.commitState(null));
     }
 
+    static File getUndoHistoryDir(Context context) {
+        return new File(context.getFilesDir(), "undo");
+    }
 
     /**
-     * Returns the md5sum for given string. Or dummy byte array on error
-     * Suppress NoSuchAlgorithmException because MD5 algorithm always present in JRE
-     * @param charSequence Given string
-     * @return md5 sum of given string
+     * @return 撤销历史文件的路径，不能保存时返回 null
      */
-    private static byte[] md5(CharSequence charSequence)
-    {
-        try
-        {
-            MessageDigest digest = MessageDigest.getInstance("MD5");
-            byte[] ba = new byte[2];
-            for(int i = 0, n = charSequence.length(); i < n; i++)
-            {
-                char cp = charSequence.charAt(i);
-                ba[0] = (byte)(cp & 0xff);
-                ba[1] = (byte)(cp >> 8 & 0xff);
-                digest.update(ba);
-            }
-            return digest.digest();
-        }
-        catch (NoSuchAlgorithmException e)
-        {
-            L.e("Can't Calculate MD5 hash!", e);
-            return charSequence.toString().getBytes();
+    private String saveUndoHistory() {
+        if (hugeFileWindow != null)
+            return null;
+        if (undoHistoryFile == null) {
+            undoHistoryFile = new File(getUndoHistoryDir(context), UUID.randomUUID() + ".undo");
         }
+        return editorDelegate.mEditText.saveUndoHistory(undoHistoryFile) ? undoHistoryFile.getPath() : null;
     }
 
-    private void highlight(Spannable spannableStringBuilder) {
-        highlight(spannableStringBuilder, 0, lineNumber - 1);
-    }
-
-    private void highlight(Spannable spannableStringBuilder, int startLine, int endLine) {
-        if(!buffer.isCanHighlight())
+    /**
+     * 界面重建后文本已经恢复，接着恢复撤销历史和记录编辑日志
+     */
+    void onTextRestored(EditorDelegate.SavedState ss) {
+        //有了撤销历史，保存点可以继续按栈顶 id 判断
+        if (undoHistoryFile != null && editorDelegate.mEditText.restoreUndoHistory(undoHistoryFile)
+                && savedUndoId != NO_SAVE_POINT) {
+            savedUndoId = ss.savedUndoId;
+        }
+        if (file == null || hugeFileWindow != null)
             return;
-        DefaultTokenHandler tokenHandler;
-//        L.d("hl startLine=" + startLine + " endLine=" + endLine);
-        L.startTracing(null);
-        if(styles == null)
-            styles = StyleLoader.loadStyles(context);
-        ArrayList<HighlightInfo> mergerArray;
-
-        for (int i = startLine; i <= endLine; i++) {
-            tokenHandler = new DefaultTokenHandler();
-            buffer.markTokens(i, tokenHandler);
-            Token token = tokenHandler.getTokens();
-
-            mergerArray = new ArrayList<>();
-            collectToken(buffer, i, token, mergerArray);
-            addTokenSpans(spannableStringBuilder, i, mergerArray);
+        if (!isChanged()) {
+            journal.reset(file, encoding);
+        } else if (!journal.resume(file)) {
+            L.d("No journal to resume for " + file);
         }
-        L.stopTracing();
     }
 
-    private void addTokenSpans(Spannable spannableStringBuilder, int line, ArrayList<HighlightInfo> mergerArray) {
-        ForegroundColorSpan fcs;
+    /**
+     * 把崩溃前没有保存的修改重新应用到刚读入的文件上，重放的修改本身也会记到新的日志里
+     */
+    private void replayJournal(List<EditJournal.Record> records) {
+        Editable text = editorDelegate.getEditableText();
+        for (EditJournal.Record record : records) {
+            int end = record.offset + record.deleteLength;
+            if (end > text.length())
+                break;
+            text.replace(record.offset, end, record.text);
+        }
+        UIUtils.toast(context, R.string.recovered_unsaved_changes);
+    }
 
-        ArrayList<ForegroundColorSpan> oldSpans = colorSpanMap.remove(line);
-        if(oldSpans != null) {
-            for(ForegroundColorSpan span : oldSpans) {
-                spannableStringBuilder.removeSpan(span);
-            }
+    /**
+     * 只比较编辑次数和撤销栈位置，不用再对整个文本算 MD5
+     */
+    public boolean isChanged() {
+        if(hugeFileWindow != null)
+            return false;
+        if(savedUndoId == NO_SAVE_POINT) {
+            return editorDelegate.getText().length() != 0;
         }
+        if (savedUndoId == CHANGED_SAVE_POINT)
+            return true;
+        if (savedGeneration == editGeneration)
+            return false;
 
-        int length = spannableStringBuilder.length();
+        //撤销或重做回到保存点时栈顶又是同一个状态
+        UndoManager undoManager = editorDelegate.mEditText.getUndoManager();
+        return undoManager == null || undoManager.getTopCommitId() != savedUndoId;
+    }
 
-        ArrayList<ForegroundColorSpan> spans = new ArrayList<>(mergerArray.size());
-        for(HighlightInfo hi : mergerArray) {
-            if(hi.endOffset > length) {
-                // TODO: 15/12/27 不应该出现这种情况，要找到原因并解决
-                L.e("assert hi.endOffset %d > maxLength %d", hi.endOffset, length);
-                hi.endOffset = length;
-            }
-            if(hi.startOffset >= hi.endOffset) {
-                L.e("hi.startOffset %d >= hi.endOffset %d", hi.startOffset, hi.endOffset);
-                continue;
-            }
-            fcs = new ForegroundColorSpan(hi.color);
-            spannableStringBuilder.setSpan(fcs, hi.startOffset, hi.endOffset, SpannableStringBuilder.SPAN_EXCLUSIVE_EXCLUSIVE);
-            spans.add(fcs);
-        }
-        colorSpanMap.put(line, spans);
-    }
-
-    private void collectToken(Buffer buffer, int lineNumber, Token token
-            , ArrayList<HighlightInfo> mergerArray) {
-//        Segment segment = new Segment();
-//        buffer.getLineText(lineNumber, segment);
-//        String line = segment.toString();
-//        String match;
-
-        int lineStartOffset = buffer.getLineManager().getLineStartOffset(lineNumber);
-
-        HighlightInfo hi;
-        while(token.id != Token.END)
-        {
-            int startIndex = lineStartOffset + token.offset;
-            int endIndex = lineStartOffset + token.offset+token.length;
-            SyntaxStyle style = styles[token.id];
-            //注意下面这句的使用
-            token = token.next;
-
-            if(style == null)
-                continue;
-
-//            int color = 0xFFFFFF & style.getForegroundColor();
-            int color = style.getForegroundColor();
-
-            if(mergerArray.isEmpty()) {
-                mergerArray.add(new HighlightInfo(startIndex, endIndex, color));
-            } else {
-                hi = mergerArray.get(mergerArray.size() - 1);
-                if(hi.color == color && hi.endOffset == startIndex) {
-                    hi.endOffset = endIndex;
-                } else {
-                    mergerArray.add(new HighlightInfo(startIndex, endIndex, color));
-                }
-            }
+    /**
+     * 从头开始在后台高亮整个文件
+     */
+    private void startHighlight() {
+        Editable text = editorDelegate.getEditableText();
+        if (previewing || hugeFileWindow != null || !buffer.isCanHighlight()
+                || !pref.isHighlight() || text.length() > pref.getHighlightSizeLimit()) {
+            highlightEngine.stop();
+            return;
         }
+        if(styles == null)
+            styles = StyleLoader.loadStyles(context);
+        buffer.setEditable(text);
+        highlightEngine.stop();
+        updateViewport();
+        highlightEngine.start(styles);
+    }
+
+    @Override
+    public void onEditorScrollChanged(int vert, int oldVert) {
+        if (highlightEngine.isStarted())
+            updateViewport();
+    }
 
-//        for(HighlightInfo hl : mergerArray) {
-//            match = line.substring(hl.startOffset, hl.endOffset);
-//            System.err.println("<" + String.format("#%06X", hl.color) + ">" + match + "</" + String.format("#%06X", hl.color) + ">");
-//        }
+    @Override
+    public void onHighlightChanged() {
+        if (editorDelegate.mEditText != null)
+            editorDelegate.mEditText.invalidate();
+    }
 
+    private void updateViewport() {
+        JecEditText editText = editorDelegate.mEditText;
+        Layout layout = editText.getLayout();
+        if (layout == null)
+            return;
+        int scrollY = editText.getScrollY();
+        int firstOffset = layout.getLineStart(layout.getLineForVertical(scrollY));
+        int lastOffset = layout.getLineEnd(layout.getLineForVertical(scrollY + editText.getHeight()));
+        LineManager lineManager = buffer.getLineManager();
+        highlightEngine.setViewport(lineManager.getLineOfOffset(firstOffset), lineManager.getLineOfOffset(lastOffset));
     }
 }
@@ -42,6 +42,7 @@ import com.jecelyin.editor.v2.R;
 import com.jecelyin.editor.v2.common.Command;
 import com.jecelyin.editor.v2.common.OnVisibilityChangedListener;
 import com.jecelyin.editor.v2.common.SaveListener;
+import com.jecelyin.editor.v2.core.content.UndoManager;
 import com.jecelyin.editor.v2.core.widget.JecEditText;
 import com.jecelyin.editor.v2.core.widget.TextView;
 import com.jecelyin.editor.v2.highlight.jedit.Catalog;
@@ -54,6 +55,7 @@ import com.jecelyin.editor.v2.view.EditorView;
 import com.jecelyin.editor.v2.view.menu.MenuDef;
 
 import java.io.File;
+import java.util.ArrayList;
 
 /**
  * @author Jecelyin Peng <jecelyin@gmail.com>
@@ -77,6 +79,23 @@ public class EditorDelegate implements OnVisibilityChangedListener, TextWatcher
         savedState = ss;
     }
 
+    /**
+     * 删除这些标签页用不到的撤销历史文件。进程被杀后界面没有恢复的话，
+     * 标签页的历史文件不会再被关闭标签页时删掉
+     *
+     * @param states 恢复的标签页，没有恢复时为 null
+     */
+    public static void deleteStaleUndoHistory(Context context, @Nullable SavedState[] states) {
+        ArrayList<File> keep = new ArrayList<File>();
+        if (states != null) {
+            for (SavedState ss : states) {
+                if (ss != null && ss.undoHistoryPath != null)
+                    keep.add(new File(ss.undoHistoryPath));
+            }
+        }
+        UndoManager.deleteHistoryFiles(Document.getUndoHistoryDir(context), keep);
+    }
+
     public EditorDelegate(int index, @Nullable File file, int offset, String encoding) {
         savedState = new SavedState();
         savedState.index = index;
@@ -124,6 +143,7 @@ public class EditorDelegate implements OnVisibilityChangedListener, TextWatcher
         if (savedState.editorState != null) {
             document.onRestoreInstanceState(savedState);
             mEditText.onRestoreInstanceState(savedState.editorState);
+            document.onTextRestored(savedState);
         } else if (savedState.file != null) {
             document.loadFile(savedState.file, savedState.encoding);
         } else if(!TextUtils.isEmpty(savedState.content)) {
@@ -162,6 +182,18 @@ public class EditorDelegate implements OnVisibilityChangedListener, TextWatcher
         mEditorView.setLoading(true);
     }
 
+    /**
+     * 大文件读取时先把首屏内容显示出来，读取完成后会被完整内容替换
+     */
+    public void onLoadPreview(CharSequence preview) {
+        mEditorView.setPreviewing(true);
+        mEditText.setText(preview);
+    }
+
+    public void onLoadProgress(int progress) {
+        mEditorView.setLoadingProgress(progress);
+    }
+
     public void onLoadFinish() {
         mEditorView.setLoading(false);
         mEditText.setEnabled(true);
@@ -289,7 +321,10 @@ public class EditorDelegate implements OnVisibilityChangedListener, TextWatcher
                     mEditText.convertWrapCharTo((String) command.object);
                 break;
             case GOTO_LINE:
-                mEditText.gotoLine(command.args.getInt("line"));
+                if (document.isHugeFile())
+                    document.getHugeFileWindow().gotoLine(command.args.getInt("line"));
+                else
+                    mEditText.gotoLine(command.args.getInt("line"));
                 break;
             case GOTO_TOP:
                 mEditText.gotoTop();
@@ -307,7 +342,7 @@ public class EditorDelegate implements OnVisibilityChangedListener, TextWatcher
             case READONLY_MODE:
                 Pref pref = Pref.getInstance(context);
                 boolean readOnly = pref.isReadOnly();
-                mEditText.setReadOnly(readOnly);
+                mEditText.setReadOnly(readOnly || document.isHugeFile());
                 ((MainActivity)context).doNextCommand();
                 break;
             case SAVE:
@@ -405,6 +440,8 @@ public class EditorDelegate implements OnVisibilityChangedListener, TextWatcher
     }
 
     public void setRemoved() {
+        if (document != null)
+            document.onDestroy();
         if (mEditorView == null)
             return;
         mEditorView.setRemoved();
@@ -541,12 +578,15 @@ public class EditorDelegate implements OnVisibilityChangedListener, TextWatcher
         if (document != null) {
             document.onSaveInstanceState(ss);
         }
-        if (mEditText != null) {
+        if (document != null && document.isHugeFile()) {
+            //只保存了一个窗口的内容，恢复时要重新打开文件
+            ss.editorState = null;
+        } else if (mEditText != null) {
             mEditText.setFreezesText(true);
             ss.editorState = (TextView.SavedState) mEditText.onSaveInstanceState();
         }
 
-        if (loaded && !disableAutoSave && document != null && document.getFile() != null && Pref.getInstance(context).isAutoSave()) {
+        if (loaded && !disableAutoSave && document != null && document.getFile() != null && !document.isHugeFile() && Pref.getInstance(context).isAutoSave()) {
             int newOrientation = context.getResources().getConfiguration().orientation;
             if (orientation != newOrientation) {
                 L.d("current is screen orientation, discard auto save!");
@@ -573,11 +613,15 @@ public class EditorDelegate implements OnVisibilityChangedListener, TextWatcher
         String encoding;
         String modeName;
         TextView.SavedState editorState;
-        byte[] textMd5;
+        int savePoint;
+        /**
+         * 保存点时撤销栈顶的 id，撤销历史恢复成功时才用得上
+         */
+        int savedUndoId;
+        String undoHistoryPath;
 
         boolean root;
         File rootFile;
-        int textLength;
 
         @Override
         public int describeContents() {
@@ -598,8 +642,9 @@ public class EditorDelegate implements OnVisibilityChangedListener, TextWatcher
             dest.writeInt(this.editorState == null ? 0 : 1);
             if (this.editorState != null)
                 dest.writeParcelable(this.editorState, flags);
-            dest.writeByteArray(this.textMd5);
-            dest.writeInt(textLength);
+            dest.writeInt(this.savePoint);
+            dest.writeInt(this.savedUndoId);
+            dest.writeString(this.undoHistoryPath);
         }
 
         public SavedState() {
@@ -621,8 +666,9 @@ public class EditorDelegate implements OnVisibilityChangedListener, TextWatcher
             int hasState = in.readInt();
             if (hasState == 1)
                 this.editorState = in.readParcelable(TextView.SavedState.class.getClassLoader());
-            this.textMd5 = in.createByteArray();
-            this.textLength = in.readInt();
+            this.savePoint = in.readInt();
+            this.savedUndoId = in.readInt();
+            this.undoHistoryPath = in.readString();
         }
 
         public static final Creator<SavedState> CREATOR = new Creator<SavedState>() {
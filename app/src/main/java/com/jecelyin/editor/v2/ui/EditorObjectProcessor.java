@@ -77,8 +77,14 @@ public class EditorObjectProcessor {
 
         private void find() {
             editText.setText(R.string.searching);
-            editText.append("\n\n");
-            grep.execute(new TaskListener<List<ExtGrep.Result>>() {
+            editText.append("\n");
+            final int headerLength = editText.getText().length();
+            grep.execute(new ExtGrep.OnResultListener() {
+                @Override
+                public void onResult(List<ExtGrep.Result> results) {
+                    appendResults(results);
+                }
+            }, new TaskListener<List<ExtGrep.Result>>() {
                 @Override
                 public void onCompleted() {
 
@@ -86,7 +92,10 @@ public class EditorObjectProcessor {
 
                 @Override
                 public void onSuccess(List<ExtGrep.Result> result) {
-                    buildResults(result);
+                    //结果已经一边找一边显示了，这里只需要去掉“正在搜索”
+                    editText.getText().delete(0, headerLength);
+                    if (result.isEmpty())
+                        editText.append(editText.getContext().getString(R.string.zero_matches));
                 }
 
                 @Override
@@ -98,17 +107,17 @@ public class EditorObjectProcessor {
             });
         }
 
-        private void buildResults(List<ExtGrep.Result> results) {
+        /**
+         * @param results 同一个文件中的匹配
+         */
+        private void appendResults(List<ExtGrep.Result> results) {
             SpannableStringBuilder ssb = new SpannableStringBuilder();
 
-            File file = null;
+            File file = results.get(0).file;
+            ssb.append("\n");
+            ssb.append(file.getPath(), new ForegroundColorSpan(findResultsPathColor), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            ssb.append("\n");
             for(ExtGrep.Result rs : results) {
-                if(file == null || !rs.file.equals(file)) {
-                    file = rs.file;
-                    ssb.append("\n");
-                    ssb.append(file.getPath(), new ForegroundColorSpan(findResultsPathColor), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    ssb.append("\n");
-                }
                 //%[index$][标识]*[最小宽度][.精度]转换符
 //                ssb.append(String.format("%1$4d  %2$s\n", rs.lineNumber, rs.line), new FileClickableSpan(editorDelegate, rs), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
                 ssb.append(String.format("%1$4d  ", rs.lineNumber));
@@ -118,7 +127,7 @@ public class EditorObjectProcessor {
                 ssb.setSpan(new FileClickableSpan(findResultsKeywordColor, editorDelegate, rs), start + rs.matchStart, start + rs.matchEnd, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
                 ssb.append('\n');
             }
-            editText.setText(ssb);
+            editText.append(ssb);
         }
 
     }
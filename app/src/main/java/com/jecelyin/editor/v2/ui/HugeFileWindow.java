@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.editor.v2.ui;
+
+import android.os.AsyncTask;
+
+import com.jecelyin.common.utils.L;
+import com.jecelyin.editor.v2.Pref;
+import com.jecelyin.editor.v2.core.text.Layout;
+import com.jecelyin.editor.v2.core.widget.JecEditText;
+import com.jecelyin.editor.v2.io.HugeFileReader;
+
+/**
+ * 超大文件的只读窗口模式：编辑器里最多只放 {@link #WINDOW_LINES} 行，
+ * 滚动到窗口边缘时再从 {@link HugeFileReader} 解码相邻的行替换进来
+ *
+ * 行很长时 HugeFileReader 会按字节数提前结束，窗口实际的行数以读到的为准
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+public class HugeFileWindow implements JecEditText.OnEditorScrollChangedListener {
+    private final static int WINDOW_LINES = 3000;
+    private final static int SHIFT_LINES = 1000;
+
+    private final EditorDelegate editorDelegate;
+    private final HugeFileReader reader;
+    private int windowStart;
+    private int windowLines;
+    private boolean loading;
+    private boolean closed;
+    private IndexTask indexTask;
+
+    public HugeFileWindow(EditorDelegate editorDelegate, HugeFileReader reader) {
+        this.editorDelegate = editorDelegate;
+        this.reader = reader;
+    }
+
+    public HugeFileReader getReader() {
+        return reader;
+    }
+
+    public void start() {
+        editorDelegate.mEditText.setReadOnly(true);
+        editorDelegate.mEditText.addOnEditorScrollChangedListener(this);
+        indexTask = new IndexTask();
+        indexTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        moveWindow(0, 0, 0);
+    }
+
+    public void close() {
+        closed = true;
+        if (indexTask != null)
+            indexTask.cancel(false);
+        JecEditText editText = editorDelegate.mEditText;
+        if (editText != null) {
+            editText.removeOnEditorScrollChangedListener(this);
+            editText.setLineNumberOffset(0);
+            editText.setReadOnly(Pref.getInstance(editText.getContext()).isReadOnly());
+        }
+        reader.close();
+    }
+
+    /**
+     * @return 文件的总行数，索引还没建立完时是已知的行数
+     */
+    public int getLineCount() {
+        return Math.max(reader.getLineCount(), windowStart + windowLines);
+    }
+
+    /**
+     * @param line 从1开始的行号
+     */
+    public void gotoLine(int line) {
+        if (line <= 0 || line > getLineCount())
+            return;
+        int target = line - 1;
+        if (target >= windowStart && target < windowStart + windowLines) {
+            editorDelegate.mEditText.gotoLine(target - windowStart + 1);
+            return;
+        }
+        moveWindow(Math.max(0, target - getShiftLines()), target, 0);
+    }
+
+    /**
+     * 每次移动的行数，不能超过窗口的 1/3，否则窗口被字节数限制时锚点那一行可能不在新窗口里
+     */
+    private int getShiftLines() {
+        if (windowLines <= 0)
+            return SHIFT_LINES;
+        return Math.max(1, Math.min(SHIFT_LINES, windowLines / 3));
+    }
+
+    @Override
+    public void onEditorScrollChanged(int vert, int oldVert) {
+        if (loading || closed)
+            return;
+        JecEditText editText = editorDelegate.mEditText;
+        Layout layout = editText.getLayout();
+        if (layout == null)
+            return;
+
+        int viewHeight = editText.getHeight();
+        int newStart;
+        if (vert > oldVert && vert + viewHeight * 2 >= layout.getHeight()
+                && windowStart + windowLines < reader.getLineCount()) {
+            newStart = windowStart + getShiftLines();
+        } else if (vert < oldVert && vert < viewHeight && windowStart > 0) {
+            newStart = Math.max(0, windowStart - getShiftLines());
+        } else {
+            return;
+        }
+
+        //保持当前顶部那一行在屏幕上的位置不变
+        int topLine = layout.getLineForVertical(vert);
+        int topOffset = layout.getLineStart(topLine);
+        int anchorLine = windowStart + countLines(editText.getText(), topOffset);
+        moveWindow(newStart, anchorLine, vert - layout.getLineTop(topLine));
+    }
+
+    private void moveWindow(int start, int anchorLine, int anchorDelta) {
+        loading = true;
+        new WindowTask(start, anchorLine, anchorDelta).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void onWindowLoaded(int start, String text, final int anchorLine, final int anchorDelta) {
+        loading = false;
+        final JecEditText editText = editorDelegate.mEditText;
+        if (closed || editText == null || text == null)
+            return;
+
+        windowStart = start;
+        windowLines = countLines(text, text.length()) + 1;
+        editText.setLineNumberOffset(windowStart);
+        editText.setLineNumber(getLineCount());
+        editText.setText(text);
+        editText.post(new Runnable() {
+            @Override
+            public void run() {
+                Layout layout = editText.getLayout();
+                if (layout == null)
+                    return;
+                int offset = offsetOfLine(editText.getText(), anchorLine - windowStart);
+                int line = layout.getLineForOffset(offset);
+                editText.scrollTo(editText.getScrollX(), Math.max(0, layout.getLineTop(line) + anchorDelta));
+                editText.setSelection(offset);
+            }
+        });
+    }
+
+    private static int countLines(CharSequence text, int end) {
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            if (text.charAt(i) == '\n')
+                count++;
+        }
+        return count;
+    }
+
+    private static int offsetOfLine(CharSequence text, int line) {
+        int length = text.length();
+        for (int i = 0; i < length && line > 0; i++) {
+            if (text.charAt(i) == '\n' && --line == 0)
+                return i + 1;
+        }
+        return line > 0 ? length : 0;
+    }
+
+    private class WindowTask extends AsyncTask<Void, Void, String> {
+        private final int start;
+        private final int anchorLine;
+        private final int anchorDelta;
+
+        WindowTask(int start, int anchorLine, int anchorDelta) {
+            this.start = start;
+            this.anchorLine = anchorLine;
+            this.anchorDelta = anchorDelta;
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            try {
+                return reader.readLines(start, WINDOW_LINES);
+            } catch (Exception e) {
+                L.e(e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String text) {
+            onWindowLoaded(start, text, anchorLine, anchorDelta);
+        }
+    }
+
+    private class IndexTask extends AsyncTask<Void, Void, Void> {
+        @Override
+        protected Void doInBackground(Void... params) {
+            try {
+                reader.buildIndex();
+            } catch (Exception e) {
+                L.e(e);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void aVoid) {
+            if (closed || editorDelegate.mEditText == null)
+                return;
+            editorDelegate.mEditText.setLineNumber(getLineCount());
+        }
+    }
+}
@@ -60,6 +60,7 @@ import com.jecelyin.editor.v2.Pref;
 import com.jecelyin.editor.v2.R;
 import com.jecelyin.editor.v2.common.Command;
 import com.jecelyin.editor.v2.common.SaveListener;
+import com.jecelyin.editor.v2.highlight.SyntaxParser;
 import com.jecelyin.editor.v2.highlight.jedit.Catalog;
 import com.jecelyin.editor.v2.task.CheckUpgradeTask;
 import com.jecelyin.editor.v2.task.ClusterCommand;
@@ -165,6 +166,11 @@ public class MainActivity extends BaseActivity
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         pref = Pref.getInstance(this);
+        SyntaxParser.warmUp(pref.getRecentModes());
+        if (savedInstanceState == null) {
+            //没有要恢复的标签页，上次留下的撤销历史都用不到了
+            EditorDelegate.deleteStaleUndoHistory(this, null);
+        }
         MenuManager.init(this);
 
         setContentView(R.layout.main_activity);
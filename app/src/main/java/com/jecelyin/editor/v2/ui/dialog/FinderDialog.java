@@ -360,12 +360,14 @@ public class FinderDialog extends AbstractDialog implements DrawClickableEditTex
                     break;
                 case ID_REPLACE:
                     if(lastResults != null) {
-                        fragment.getEditableText().replace(lastResults.start(), lastResults.end(), ExtGrep.parseReplacement(lastResults, replaceText));
+                        //不用正则时按原样替换，$ 和 \ 没有特殊含义
+                        fragment.getEditableText().replace(lastResults.start(), lastResults.end(),
+                                grep.isUseRegex() ? ExtGrep.parseReplacement(lastResults, replaceText) : replaceText);
                         lastResults = null;
                     }
                     break;
                 case ID_REPLACE_ALL:
-                    grep.replaceAll(fragment.getEditableText(), replaceText);
+                    grep.replaceAll(fragment.getContext(), fragment.getEditableText(), replaceText);
                     break;
                 default:
                     return false;
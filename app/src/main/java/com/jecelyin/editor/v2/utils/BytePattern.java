@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.editor.v2.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * 按文件编码把要查找的文字编码成字节，直接在字节流上用 Boyer-Moore-Horspool 查找，
+ * 不需要先把整个文件解码成字符串
+ *
+ * 只支持 ASCII 字节不会出现在多字节字符中间的编码（UTF-8, ISO-8859-x, windows-125x），
+ * 否则字节匹配可能落在半个字符上。忽略大小写时和 {@link java.util.regex.Pattern#CASE_INSENSITIVE} 一样只比较 ASCII 字母
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+final class BytePattern {
+    private final Charset charset;
+    private final byte[] needle;
+    private final int[] skip = new int[256];
+    private final boolean ignoreCase;
+    private final boolean utf8;
+    private final int charLength;
+
+    private BytePattern(Charset charset, byte[] needle, boolean ignoreCase, int charLength) {
+        this.charset = charset;
+        this.needle = needle;
+        this.ignoreCase = ignoreCase;
+        this.utf8 = "UTF-8".equals(charset.name());
+        this.charLength = charLength;
+
+        int last = needle.length - 1;
+        for (int i = 0; i < skip.length; i++) {
+            skip[i] = needle.length;
+        }
+        for (int i = 0; i < last; i++) {
+            skip[needle[i] & 0xff] = last - i;
+        }
+    }
+
+    /**
+     * @return 编码不支持或者要查找的文字不能按字节匹配时返回 null
+     */
+    static BytePattern compile(String literal, String encoding, boolean ignoreCase) {
+        if (literal == null || literal.isEmpty())
+            return null;
+        //按行查找，跨行的文字交给正则处理
+        if (literal.indexOf('\n') >= 0 || literal.indexOf('\r') >= 0)
+            return null;
+
+        Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        } catch (Exception e) {
+            return null;
+        }
+        if (!isSupportedCharset(charset))
+            return null;
+
+        byte[] bytes = literal.getBytes(charset);
+        //有编码不了的字符，文件中不可能有这样的字节序列
+        if (!literal.equals(new String(bytes, charset)))
+            return null;
+        if (ignoreCase) {
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = toLower(bytes[i]);
+            }
+        }
+        return new BytePattern(charset, bytes, ignoreCase, literal.length());
+    }
+
+    private static boolean isSupportedCharset(Charset charset) {
+        String name = charset.name();
+        return "UTF-8".equals(name)
+                || "US-ASCII".equals(name)
+                || name.startsWith("ISO-8859-")
+                || name.startsWith("windows-125");
+    }
+
+    Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return 要查找的文字的字节数
+     */
+    int length() {
+        return needle.length;
+    }
+
+    /**
+     * @return 要查找的文字的字符数
+     */
+    int charLength() {
+        return charLength;
+    }
+
+    /**
+     * 在 buf[from, limit) 中查找
+     *
+     * @return 匹配的起始位置，没有时返回 -1
+     */
+    int indexOf(ByteBuffer buf, int from, int limit) {
+        int last = needle.length - 1;
+        int end = limit - needle.length;
+        while (from <= end) {
+            byte b = fold(buf.get(from + last));
+            if (b == needle[last]) {
+                int j = last - 1;
+                while (j >= 0 && fold(buf.get(from + j)) == needle[j]) {
+                    j--;
+                }
+                if (j < 0)
+                    return from;
+            }
+            from += skip[b & 0xff];
+        }
+        return -1;
+    }
+
+    /**
+     * @return 这个字节对应多少个 UTF-16 字符，UTF-8 的后续字节返回 0，4字节字符的首字节返回 2
+     */
+    int charCount(byte b) {
+        if (!utf8)
+            return 1;
+        if ((b & 0xC0) == 0x80)
+            return 0;
+        return (b & 0xF8) == 0xF0 ? 2 : 1;
+    }
+
+    private byte fold(byte b) {
+        return ignoreCase ? toLower(b) : b;
+    }
+
+    private static byte toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+}
@@ -1,10 +1,15 @@
 package com.jecelyin.editor.v2.utils;
 
+import android.content.Context;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.text.Editable;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.TextWatcher;
 
 import com.jecelyin.common.app.JecApp;
+import com.jecelyin.common.app.ProgressDialog;
 import com.jecelyin.common.task.JecAsyncTask;
 import com.jecelyin.common.task.TaskListener;
 import com.jecelyin.common.task.TaskResult;
@@ -19,9 +24,19 @@ import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,6 +45,26 @@ import java.util.regex.Pattern;
  * @author https://github.com/drippel/JavaGrep
  */
 public class ExtGrep implements Parcelable {
+    /**
+     * 在多个文件中查找时最多用几个线程
+     */
+    private final static int MAX_GREP_THREADS = 4;
+    /**
+     * 遍历目录得到的文件先放进这个大小的队列，再由查找线程取出
+     */
+    private final static int FILE_QUEUE_SIZE = 256;
+    /**
+     * 放在队列最后，告诉查找线程没有更多文件了
+     */
+    private final static File END_OF_FILES = new File("");
+    /**
+     * 队列满时每隔多久检查一次查找线程是否还在
+     */
+    private final static long QUEUE_PUT_TIMEOUT = 200;
+    /**
+     * 不超过这个大小的文件直接读进内存，更大的才用内存映射
+     */
+    private final static int MAP_FILE_MIN_SIZE = 256 * 1024;
 
     final List<String> includeFilePatterns = new ArrayList<String>();
     final List<String> excludeDirPatterns = new ArrayList<String>();
@@ -56,6 +91,10 @@ public class ExtGrep implements Parcelable {
     int afterContext = 0;
     private Pattern grepPattern;
     private String regex;
+    /**
+     * 不使用正则时用户输入的原始文字
+     */
+    private String literal;
     private List<File> filesToProcess = new ArrayList<>();
     private boolean useRegex;
 
@@ -63,6 +102,13 @@ public class ExtGrep implements Parcelable {
         public void onFinish(List<Result> results);
     }
 
+    public static interface OnResultListener {
+        /**
+         * 在UI线程中回调，每次是同一个文件中的所有匹配
+         */
+        public void onResult(List<Result> results);
+    }
+
     public enum GrepDirect {
         PREV,
         NEXT,
@@ -78,15 +124,103 @@ public class ExtGrep implements Parcelable {
 //        }
     }
 
-    private List<Result> grepFiles() {
-        ArrayList<Result> results = new ArrayList<Result>();
-        // at this point the list was expanded into file names
+    /**
+     * 当前线程负责遍历目录，把文件放进队列；几个查找线程从队列中取出文件查找，
+     * 每找完一个有匹配的文件就通过 task 把结果发到UI线程
+     */
+    private List<Result> grepFiles(final GrepTask task) throws InterruptedException {
+        final ArrayList<Result> results = new ArrayList<Result>();
+        final BlockingQueue<File> queue = new ArrayBlockingQueue<File>(FILE_QUEUE_SIZE);
+        int threads = Math.max(1, Math.min(MAX_GREP_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final AtomicInteger workers = new AtomicInteger(threads);
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (File f = queue.take(); f != END_OF_FILES; f = queue.take()) {
+                        if (task.isCancelled() || !f.canRead())
+                            continue;
+                        List<Result> fileResults;
+                        try {
+                            fileResults = grepFile(f);
+                        } catch (Throwable t) {
+                            //一个文件出错不能让线程退出，否则遍历目录的线程会卡在满了的队列上
+                            L.e("grep " + f.getPath(), t);
+                            continue;
+                        }
+                        if (fileResults == null || fileResults.isEmpty())
+                            continue;
+                        synchronized (results) {
+                            results.addAll(fileResults);
+                        }
+                        task.publishResults(fileResults);
+                    }
+                } catch (InterruptedException e) {
+                    //cancelled
+                } finally {
+                    workers.decrementAndGet();
+                }
+            }
+        };
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                executor.execute(worker);
+            }
+            enqueueFiles(queue, task, workers);
+            for (int i = 0; i < threads; i++) {
+                if (!putFile(queue, END_OF_FILES, workers))
+                    break;
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        synchronized (results) {
+            return results;
+        }
+    }
+
+    /**
+     * 队列满时等待查找线程取走文件，查找线程都已经退出时返回 false
+     */
+    private static boolean putFile(BlockingQueue<File> queue, File f, AtomicInteger workers) throws InterruptedException {
+        while (!queue.offer(f, QUEUE_PUT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            if (workers.get() <= 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void enqueueFiles(BlockingQueue<File> queue, GrepTask task, AtomicInteger workers) throws InterruptedException {
+        LinkedList<File> dirs = new LinkedList<File>();
         for (final File f : filesToProcess) {
-            if (!f.exists() || !f.canRead())
+            if (f.isFile()) {
+                if (includeFile(f) && !excludeFile(f) && !putFile(queue, f, workers))
+                    return;
+            } else if (f.isDirectory() && recurseDirectories) {
+                dirs.add(f);
+            }
+        }
+
+        while (!dirs.isEmpty() && !task.isCancelled()) {
+            File[] files = dirs.removeFirst().listFiles();
+            if (files == null)
                 continue;
-            results.addAll(grepFile(f));
+            for (File f : files) {
+                if (f.isFile()) {
+                    if (includeFile(f) && !excludeFile(f) && !putFile(queue, f, workers))
+                        return;
+                } else if (f.isDirectory()) {
+                    if (!excludeDir(f))
+                        dirs.add(f);
+                }
+            }
         }
-        return results;
     }
 
     void readExcludeFrom(final String vals[]) {
@@ -219,53 +353,6 @@ public class ExtGrep implements Parcelable {
 //        }
     }
 
-    public void verifyFileList() {
-
-        List<File> list = new ArrayList<>();
-
-        for (final File f : filesToProcess) {
-
-            if (f.exists()) {
-                if (f.isFile()) {
-                    if (includeFile(f)) {
-                        if (!excludeFile(f)) {
-                            list.add(f);
-                        }
-                    }
-                } else if (f.isDirectory()) {
-                    if (recurseDirectories) {
-                        list.addAll(recurseDir(f));
-                    }
-                }
-            }
-        }
-
-        filesToProcess = list;
-    }
-
-    private List<File> recurseDir(final File dir) {
-
-        List<File> files = new ArrayList<File>();
-
-        for (File f : dir.listFiles()) {
-
-            if (f.isFile()) {
-                if (includeFile(f)) {
-                    if (!excludeFile(f)) {
-                        files.add(f);
-                    }
-                }
-            } else if (f.isDirectory()) {
-                if (!excludeDir(f)) {
-                    files.addAll(recurseDir(f));
-                }
-            }
-
-        }
-
-        return files;
-    }
-
     void readRegexFromFile(final String... fnames) {
 
 //        for( String fname : fnames ) {
@@ -381,25 +468,14 @@ public class ExtGrep implements Parcelable {
         return null;
     }
 
-    public void replaceAll(Editable text, String replaceText) {
-        Matcher m = grepPattern.matcher(text);
-        ArrayList<Integer> array = new ArrayList<>();
-        // 从头开始搜索获取所有位置
-        while (m.find()) {
-            array.add(m.start());
-            array.add(m.end());
-        }
-        int size = array.size();
-        if (size == 0) {
-            UIUtils.toast(JecApp.getContext(), JecApp.getContext().getResources().getQuantityString(R.plurals.x_text_replaced, 0));
-            return;
-        }
-        int count = 0;
-        for (int i = size - 2; i >= 0; i -= 2) {
-            count++;
-            text.replace(array.get(i), array.get(i + 1), replaceText);
-        }
-        UIUtils.toast(JecApp.getContext(), JecApp.getContext().getResources().getQuantityString(R.plurals.x_text_replaced, count, count));
+    /**
+     * 在后台把第一个匹配到最后一个匹配之间的文本一次性生成好，最后只调用一次 replace，
+     * 这样只会触发一次文本改变通知，也只产生一个撤销操作。显示进度，关闭进度框就取消
+     */
+    public void replaceAll(Context context, Editable text, String replaceText) {
+        ReplaceAllTask task = new ReplaceAllTask(context, text, replaceText);
+        task.setProgress(new ProgressDialog(context, R.string.replace_all));
+        task.execute();
     }
 
     public static String parseReplacement(MatcherResult m, String replaceText) {
@@ -442,7 +518,103 @@ public class ExtGrep implements Parcelable {
         return buffer.toString();
     }
 
+    /**
+     * 不使用正则的普通查找可以直接在字节上匹配，只在找到的地方解码那一行
+     */
+    private boolean canGrepBytes() {
+        return !useRegex && literal != null && !invertMatch && !wordRegex && !lineRegex
+                && !printMatchOnly && afterContext == 0;
+    }
+
     private List<Result> grepFile(final File file) {
+        String encoding = FileEncodingDetector.detectEncoding(file);
+        //太大的文件无法一次映射，还是按行读取
+        BytePattern pattern = canGrepBytes() && file.length() <= Integer.MAX_VALUE
+                ? BytePattern.compile(literal, encoding, ignoreCase) : null;
+        if (pattern == null)
+            return grepFileLines(file, encoding);
+
+        try {
+            return grepFileBytes(file, pattern);
+        } catch (Exception e) {
+            L.e(e);
+            return new ArrayList<>();
+        }
+    }
+
+    private List<Result> grepFileBytes(final File file, final BytePattern pattern) throws IOException {
+        ArrayList<Result> results = new ArrayList<>();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            int size = (int) channel.size();
+            ByteBuffer buf;
+            if (size < MAP_FILE_MIN_SIZE) {
+                byte[] bytes = new byte[size];
+                raf.readFully(bytes);
+                buf = ByteBuffer.wrap(bytes);
+            } else {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+
+            int count = 0;
+            //[0, counted) 之间的字节已经统计过行号和字符偏移
+            int counted = 0;
+            int lineNumber = 1;
+            int charOffset = 0;
+            int lineStart = 0;
+            int lineStartChar = 0;
+            int pos = 0;
+            while ((pos = pattern.indexOf(buf, pos, size)) >= 0) {
+                for (; counted < pos; counted++) {
+                    byte b = buf.get(counted);
+                    if (b == '\r' && counted + 1 < size && buf.get(counted + 1) == '\n') {
+                        //和按行读取时一样，\r\n 只算一个字符
+                        continue;
+                    }
+                    if (b == '\n' || b == '\r') {
+                        //和 BufferedReader.readLine 一样，单独的 \r 也是换行
+                        lineNumber++;
+                        charOffset++;
+                        lineStart = counted + 1;
+                        lineStartChar = charOffset;
+                    } else {
+                        charOffset += pattern.charCount(b);
+                    }
+                }
+
+                int lineEnd = pos + pattern.length();
+                while (lineEnd < size && buf.get(lineEnd) != '\n' && buf.get(lineEnd) != '\r') {
+                    lineEnd++;
+                }
+                String line = decode(buf, lineStart, lineEnd, pattern);
+                int column = Math.min(charOffset - lineStartChar, line.length());
+
+                count++;
+                results.add(printMatch(file, line, lineNumber, charOffset, charOffset + pattern.charLength(), column, null, null));
+                if (printFileNameOnly) {
+                    return null;
+                }
+                if ((maxCount != 0) && (count >= maxCount)) {
+                    break;
+                }
+                //和按行查找一样，每行只报告第一个匹配
+                pos = lineEnd + 1;
+            }
+        } finally {
+            raf.close();
+        }
+        return results;
+    }
+
+    private static String decode(ByteBuffer buf, int start, int end, BytePattern pattern) {
+        ByteBuffer line = buf.duplicate();
+        line.limit(end);
+        line.position(start);
+        return pattern.getCharset().decode(line).toString();
+    }
+
+    private List<Result> grepFileLines(final File file, final String encoding) {
         int lineNumber = 0;
         int count = 0;
         int byteOffset = 0;
@@ -451,7 +623,6 @@ public class ExtGrep implements Parcelable {
         ArrayList<Result> results = new ArrayList<>();
         BufferedReader bfr = null;
         try {
-            String encoding = FileEncodingDetector.detectEncoding(file);
             bfr = new BufferedReader(new InputStreamReader(new FileInputStream(file), encoding), 16000);
             for (String line = bfr.readLine(); line != null; line = bfr.readLine()) {
 
@@ -590,6 +761,7 @@ public class ExtGrep implements Parcelable {
 
     public void setRegex(final String r, boolean useRegex) {
         regex = !useRegex ? escapeRegexChar(r) : r;
+        literal = !useRegex ? r : null;
         this.useRegex = useRegex;
     }
 
@@ -633,17 +805,146 @@ public class ExtGrep implements Parcelable {
         filesToProcess.add(new File(name));
     }
 
-    public void execute(TaskListener<List<Result>> listener) {
-        new JecAsyncTask<Void, Void, List<Result>>() {
+    /**
+     * @param resultListener 找到结果时马上回调，不用等全部文件找完
+     * @param listener 全部找完后回调所有的结果
+     */
+    public void execute(OnResultListener resultListener, TaskListener<List<Result>> listener) {
+        new GrepTask(resultListener).setTaskListener(listener).execute();
+    }
 
-            @Override
-            protected void onRun(TaskResult<List<Result>> taskResult, Void... params) throws Exception {
-                compilePattern();
-                verifyFileList();
-                List<Result> results = grepFiles();
-                taskResult.setResult(results);
+    private class GrepTask extends JecAsyncTask<Void, List<Result>, List<Result>> {
+        private final OnResultListener resultListener;
+
+        GrepTask(OnResultListener resultListener) {
+            this.resultListener = resultListener;
+        }
+
+        void publishResults(List<Result> results) {
+            publishProgress(results);
+        }
+
+        @Override
+        protected void onProgressUpdate(List<Result>... values) {
+            if (resultListener != null && !isCancelled())
+                resultListener.onResult(values[0]);
+        }
+
+        @Override
+        protected void onRun(TaskResult<List<Result>> taskResult, Void... params) throws Exception {
+            compilePattern();
+            taskResult.setResult(grepFiles(this));
+        }
+    }
+
+    private class ReplaceAllTask extends JecAsyncTask<Void, Integer, CharSequence> implements TextWatcher {
+        private final Context context;
+        private final Editable text;
+        private final String replaceText;
+        private char[] snapshot;
+        private int replaceStart;
+        private int replaceEnd;
+        private int count;
+        /**
+         * 替换过程中文本被修改了，生成的结果就不能用了
+         */
+        private boolean modified;
+
+        ReplaceAllTask(Context context, Editable text, String replaceText) {
+            this.context = context;
+            this.text = text;
+            this.replaceText = replaceText;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            super.onPreExecute();
+            int length = text.length();
+            snapshot = new char[length];
+            TextUtils.getChars(text, 0, length, snapshot, 0);
+            text.setSpan(this, 0, length, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        }
+
+        @Override
+        protected void onRun(TaskResult<CharSequence> taskResult, Void... params) throws Exception {
+            compilePattern();
+            int length = snapshot.length;
+            Matcher m = grepPattern.matcher(CharBuffer.wrap(snapshot));
+            //不用正则时按原样替换；不含 $ 和 \ 时每个匹配的替换文字都一样，不用每次解析
+            boolean parse = useRegex && (replaceText.indexOf('$') >= 0 || replaceText.indexOf('\\') >= 0);
+            StringBuilder out = null;
+            int last = 0;
+            int nextProgress = 0;
+            while (m.find()) {
+                if (isCancelled()) {
+                    taskResult.setResult(null);
+                    return;
+                }
+                if (out == null) {
+                    out = new StringBuilder();
+                    replaceStart = last = m.start();
+                }
+                out.append(snapshot, last, m.start() - last);
+                out.append(parse ? parseReplacement(new MatcherResult(m), replaceText) : replaceText);
+                last = m.end();
+                count++;
+                if (last >= nextProgress) {
+                    publishProgress((int) ((long) last * 100 / length));
+                    nextProgress = last + length / 100;
+                }
             }
-        }.setTaskListener(listener).execute();
+            replaceEnd = last;
+            taskResult.setResult(out);
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            if (getProgress() != null)
+                getProgress().setMessage(context.getString(R.string.replace_all) + " " + values[0] + "%");
+        }
+
+        @Override
+        protected void onSuccess(CharSequence result) {
+            text.removeSpan(this);
+            snapshot = null;
+            if (modified) {
+                //进度框显示时一般不会有修改，真有的话按新的文本重新来一次
+                replaceAll(context, text, replaceText);
+                return;
+            }
+            if (result != null) {
+                text.replace(replaceStart, replaceEnd, result);
+            }
+            UIUtils.toast(JecApp.getContext(), JecApp.getContext().getResources().getQuantityString(R.plurals.x_text_replaced, count, count));
+        }
+
+        @Override
+        protected void onError(Exception e) {
+            text.removeSpan(this);
+            snapshot = null;
+            L.e(e);
+            UIUtils.toast(context, e.getMessage());
+        }
+
+        @Override
+        protected void onCancelled() {
+            super.onCancelled();
+            text.removeSpan(this);
+            snapshot = null;
+        }
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            modified = true;
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+        }
     }
 
     public static class Result {
@@ -690,6 +991,8 @@ public class ExtGrep implements Parcelable {
         dest.writeInt(this.afterContext);
         dest.writeString(this.regex);
         dest.writeList(this.filesToProcess);
+        dest.writeByte(useRegex ? (byte) 1 : (byte) 0);
+        dest.writeString(this.literal);
     }
 
     protected ExtGrep(Parcel in) {
@@ -717,6 +1020,8 @@ public class ExtGrep implements Parcelable {
         this.regex = in.readString();
         this.filesToProcess = new ArrayList<File>();
         in.readList(this.filesToProcess, List.class.getClassLoader());
+        this.useRegex = in.readByte() != 0;
+        this.literal = in.readString();
     }
 
     public static final Creator<ExtGrep> CREATOR = new Creator<ExtGrep>() {
@@ -22,6 +22,7 @@ import android.content.Context;
 import android.util.AttributeSet;
 import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
+import android.widget.TextView;
 
 import com.jecelyin.editor.v2.R;
 import com.jecelyin.editor.v2.common.OnVisibilityChangedListener;
@@ -33,6 +34,7 @@ import com.jecelyin.editor.v2.core.widget.JecEditText;
 public class EditorView extends RelativeLayout {
     private JecEditText editText;
     private ProgressBar progressView;
+    private TextView progressTextView;
     private boolean removed = false;
     private OnVisibilityChangedListener visibilityChangedListener;
 
@@ -50,6 +52,7 @@ public class EditorView extends RelativeLayout {
 
         editText = (JecEditText) findViewById(R.id.edit_text);
         progressView = (ProgressBar) findViewById(R.id.progress_view);
+        progressTextView = (TextView) findViewById(R.id.progress_text_view);
 
     }
 
@@ -64,9 +67,22 @@ public class EditorView extends RelativeLayout {
         } else {
             editText.setVisibility(VISIBLE);
             progressView.setVisibility(GONE);
+            progressTextView.setVisibility(GONE);
         }
     }
 
+    /**
+     * 显示首屏内容，但读取进度仍然保留在上面
+     */
+    public void setPreviewing(boolean previewing) {
+        editText.setVisibility(previewing ? VISIBLE : GONE);
+    }
+
+    public void setLoadingProgress(int progress) {
+        progressTextView.setVisibility(VISIBLE);
+        progressTextView.setText(progress + "%");
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
@@ -30,6 +30,7 @@ import android.view.MenuItem;
 
 import com.jecelyin.android.file_explorer.io.JecFile;
 import com.jecelyin.android.file_explorer.io.LocalFile;
+import com.jecelyin.android.file_explorer.io.RootFile;
 import com.jecelyin.android.file_explorer.listener.BoolResultListener;
 import com.jecelyin.android.file_explorer.listener.OnClipboardPasteFinishListener;
 import com.jecelyin.android.file_explorer.util.MimeTypes;
@@ -241,8 +242,17 @@ public class FileExplorerAction implements OnCheckedChangeListener, ActionMode.C
     }
 
     private void doDeleteAction() {
+        List<JecFile> rootFiles = new ArrayList<>();
         for (JecFile file : checkedList) {
-            file.delete(null);
+            if (file instanceof RootFile) {
+                rootFiles.add(file);
+            } else {
+                file.delete(null);
+            }
+        }
+        //root 文件在一次 shell 调用中全部删除
+        if (!rootFiles.isEmpty()) {
+            RootFile.deleteAll(rootFiles.toArray(new JecFile[rootFiles.size()]), null);
         }
         view.refresh();
         destroyActionMode();
@@ -57,7 +57,6 @@ import com.jecelyin.editor.v2.Pref;
 import com.yqritc.recyclerviewflexibledivider.HorizontalDividerItemDecoration;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 
@@ -342,7 +341,7 @@ public class FileListPagerFragment extends JecFragment implements SwipeRefreshLa
                         result = new JecFile[list.size()];
                         list.toArray(result);
                     }
-                    Arrays.sort(result, new FileListSorter(true, sortType, true));
+                    new FileListSorter(true, sortType, true).sort(result);
                     taskResult.setResult(result);
                 }
             });
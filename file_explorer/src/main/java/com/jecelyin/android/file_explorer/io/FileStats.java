@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.android.file_explorer.io;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import java.io.File;
+
+/**
+ * 列目录时一次取出所有文件的类型、大小和修改时间，按列存放在几个数组里，
+ * 之后排序和显示都只读数组，不会再对每个文件反复 stat
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+final class FileStats {
+    private final static byte TYPE_OTHER = 0;
+    private final static byte TYPE_DIRECTORY = 1;
+    private final static byte TYPE_FILE = 2;
+
+    private final byte[] types;
+    private final long[] lengths;
+    private final long[] lastModified;
+
+    FileStats(File[] files) {
+        int count = files.length;
+        types = new byte[count];
+        lengths = new long[count];
+        lastModified = new long[count];
+        boolean useStat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+        for (int i = 0; i < count; i++) {
+            if (!useStat || !stat(i, files[i].getPath())) {
+                File file = files[i];
+                types[i] = file.isDirectory() ? TYPE_DIRECTORY : (file.isFile() ? TYPE_FILE : TYPE_OTHER);
+                lengths[i] = file.length();
+                lastModified[i] = file.lastModified();
+            }
+        }
+    }
+
+    /**
+     * 一次系统调用取出全部属性，File 的几个方法每个都要 stat 一次
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private boolean stat(int index, String path) {
+        StructStat st;
+        try {
+            st = Os.stat(path);
+        } catch (ErrnoException e) {
+            return false;
+        }
+        if (OsConstants.S_ISDIR(st.st_mode)) {
+            types[index] = TYPE_DIRECTORY;
+        } else if (OsConstants.S_ISREG(st.st_mode)) {
+            types[index] = TYPE_FILE;
+        } else {
+            types[index] = TYPE_OTHER;
+        }
+        lengths[index] = st.st_size;
+        lastModified[index] = st.st_mtime * 1000L;
+        return true;
+    }
+
+    boolean isDirectory(int index) {
+        return types[index] == TYPE_DIRECTORY;
+    }
+
+    boolean isFile(int index) {
+        return types[index] == TYPE_FILE;
+    }
+
+    long length(int index) {
+        return lengths[index];
+    }
+
+    long lastModified(int index) {
+        return lastModified[index];
+    }
+}
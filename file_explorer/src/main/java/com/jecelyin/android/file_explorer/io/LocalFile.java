@@ -38,6 +38,11 @@ import java.io.OutputStream;
  */
 public class LocalFile extends JecFile {
     private File file;
+    /**
+     * 列目录时取到的属性，不为 null 时不再访问文件系统
+     */
+    private FileStats stats;
+    private int statIndex;
 
     public LocalFile(JecFile parent, String child) {
         super(parent, child);
@@ -54,6 +59,13 @@ public class LocalFile extends JecFile {
         file = new File(pathname);
     }
 
+    private LocalFile(File file, FileStats stats, int statIndex) {
+        super(file.getPath());
+        this.file = file;
+        this.stats = stats;
+        this.statIndex = statIndex;
+    }
+
     @Override
     public JecFile newFile(String filename) {
         return new LocalFile(getPath(), filename);
@@ -109,26 +121,27 @@ public class LocalFile extends JecFile {
 
     @Override
     public boolean isDirectory() {
-        return file.isDirectory();
+        return stats != null ? stats.isDirectory(statIndex) : file.isDirectory();
     }
 
     @Override
     public boolean isFile() {
-        return file.isFile();
+        return stats != null ? stats.isFile(statIndex) : file.isFile();
     }
 
     @Override
     public long lastModified() {
-        return file.lastModified();
+        return stats != null ? stats.lastModified(statIndex) : file.lastModified();
     }
 
     @Override
     public long length() {
-        return file.length();
+        return stats != null ? stats.length(statIndex) : file.length();
     }
 
     @Override
     public void delete(BoolResultListener listener) {
+        stats = null;
         boolean result = deleteRecursive(file);
         if (listener != null)
             listener.onResult(result);
@@ -148,13 +161,14 @@ public class LocalFile extends JecFile {
             throw new NullPointerException();
 
         File[] files = file.listFiles();
-        if (files.length == 0) {
+        if (files == null || files.length == 0) {
             listener.onResult(new LocalFile[0]);
             return;
         }
+        FileStats stats = new FileStats(files);
         LocalFile[] localFiles = new LocalFile[files.length];
         for (int i = 0; i < files.length; i++) {
-            localFiles[i] = new LocalFile(files[i].getPath());
+            localFiles[i] = new LocalFile(files[i], stats, i);
         }
 
         listener.onResult(localFiles);
@@ -162,6 +176,7 @@ public class LocalFile extends JecFile {
 
     @Override
     public void mkdirs(BoolResultListener listener) {
+        stats = null;
         boolean result = file.mkdirs();
 
         if (listener != null)
@@ -170,6 +185,7 @@ public class LocalFile extends JecFile {
 
     @Override
     public void renameTo(JecFile dest, BoolResultListener listener) {
+        stats = null;
         boolean result = file.renameTo(new File(dest.getPath()));
         if (listener != null)
             listener.onResult(result);
@@ -23,9 +23,8 @@ import android.os.Parcel;
 import com.jecelyin.android.file_explorer.listener.BoolResultListener;
 import com.jecelyin.android.file_explorer.listener.FileListResultListener;
 import com.jecelyin.android.file_explorer.util.FileInfo;
+import com.jecelyin.android.file_explorer.util.RootBatch;
 import com.jecelyin.android.file_explorer.util.RootUtils;
-import com.jecelyin.common.utils.L;
-import com.stericson.RootTools.RootTools;
 
 import java.util.List;
 
@@ -88,26 +87,37 @@ public class RootFile extends LocalFile {
         return fileInfo != null && fileInfo.isSymlink ? fileInfo.linkedPath : RootUtils.getRealPath(getPath());
     }
 
+    /**
+     * 命令中使用的路径。经过符号链接目录的路径在 shell 中一样有效，
+     * 只有文件本身是符号链接时才换成链接目标，不用再一级一级查真实路径
+     */
+    private String getShellPath() {
+        if (fileInfo == null)
+            return getAbsolutePath();
+        return fileInfo.isSymlink ? fileInfo.linkedPath : getPath();
+    }
+
     @Override
     public void delete(final BoolResultListener listener) {
-        RootUtils.RootCommand command = new RootUtils.RootCommand("rm -rf \"%s\"", getAbsolutePath())
-        {
-            @Override
-            public void onFinish(boolean success, String output) {
-                listener.onResult(success && output.trim().isEmpty());
-            }
-        };
-        try {
-            RootTools.getShell(true).add(command);
-        }catch (Exception e) {
-            L.e(e);
-            listener.onResult(false);
+        deleteAll(new JecFile[]{this}, listener);
+    }
+
+    /**
+     * 在同一个 shell 调用中删除多个文件，批量删除时只等一次
+     */
+    public static void deleteAll(JecFile[] files, final BoolResultListener listener) {
+        final RootBatch batch = new RootBatch();
+        for (JecFile file : files) {
+            String path = file instanceof RootFile ? ((RootFile) file).getShellPath() : file.getAbsolutePath();
+            batch.add("rm -rf " + RootBatch.quote(path));
         }
+        execute(batch, listener);
     }
 
     @Override
     public void listFiles(FileListResultListener listener) {
-        List<FileInfo> list = RootUtils.listFileInfo(getAbsolutePath());
+        //路径末尾加上 / 时 ls 会跟随符号链接，不用先查真实路径
+        List<FileInfo> list = RootUtils.listFileInfo(getPath() + "/");
 
         int size = list.size();
         RootFile[] results = new RootFile[size];
@@ -122,30 +132,31 @@ public class RootFile extends LocalFile {
 
     @Override
     public void mkdirs(final BoolResultListener listener) {
-        try {
-            RootTools.getShell(true).add(new RootUtils.RootCommand("mkdir -p \"%s\"", getAbsolutePath()) {
-                @Override
-                public void onFinish(boolean success, String output) {
-                    listener.onResult(success && output.trim().isEmpty());
-                }
-            });
-        } catch (Exception e) {
-            L.e(e);
-        }
+        RootBatch batch = new RootBatch();
+        batch.add("mkdir -p " + RootBatch.quote(getShellPath()));
+        execute(batch, listener);
     }
 
     @Override
     public void renameTo(JecFile dest, final BoolResultListener listener) {
-        try {
-            RootTools.getShell(true).add(new RootUtils.RootCommand("mv \"%s\" \"%s\"", getAbsolutePath(), dest.getAbsolutePath()) {
-                @Override
-                public void onFinish(boolean success, String output) {
-                    listener.onResult(success && output.trim().isEmpty());
+        RootBatch batch = new RootBatch();
+        batch.add("mv " + RootBatch.quote(getShellPath()) + " " + RootBatch.quote(dest.getAbsolutePath()));
+        execute(batch, listener);
+    }
+
+    private static void execute(RootBatch batch, final BoolResultListener listener) {
+        batch.executeAsync(new RootBatch.OnFinishListener() {
+            @Override
+            public void onFinish(RootBatch batch) {
+                if (listener == null)
+                    return;
+                boolean success = true;
+                for (int i = 0; i < batch.size() && success; i++) {
+                    success = batch.isSuccess(i);
                 }
-            });
-        } catch (Exception e) {
-            L.e(e);
-        }
+                listener.onResult(success);
+            }
+        });
     }
 
     @Override
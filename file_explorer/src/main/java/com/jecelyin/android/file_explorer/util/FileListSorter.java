@@ -89,6 +89,107 @@ public class FileListSorter implements Comparator<JecFile> {
 
     }
 
+    /**
+     * 先把每个文件的属性取到几个数组里，排序时只比较数组。
+     * 和 {@link java.util.Arrays#sort(Object[], Comparator)} 一样是稳定的归并排序，结果和 {@link #compare(JecFile, JecFile)} 一致
+     */
+    public void sort(JecFile[] files) {
+        final int count = files.length;
+        if (count < 2)
+            return;
+        Keys keys = new Keys(files, sort);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[count], 0, count, keys);
+
+        JecFile[] sorted = new JecFile[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = files[order[i]];
+        }
+        System.arraycopy(sorted, 0, files, 0, count);
+    }
+
+    private void mergeSort(int[] order, int[] temp, int from, int to, Keys keys) {
+        if (to - from < 2)
+            return;
+        int mid = (from + to) >>> 1;
+        mergeSort(order, temp, from, mid, keys);
+        mergeSort(order, temp, mid, to, keys);
+        if (compare(keys, order[mid - 1], order[mid]) <= 0)
+            return;
+        System.arraycopy(order, from, temp, from, to - from);
+        int i = from, j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && compare(keys, temp[i], temp[j]) <= 0)) {
+                order[k] = temp[i++];
+            } else {
+                order[k] = temp[j++];
+            }
+        }
+    }
+
+    private int compare(Keys keys, int a, int b) {
+        if (keys.directories[a] && !keys.directories[b]) {
+            return dirsOnTop ? -1 : 1;
+        } else if (keys.directories[b] && !keys.directories[a]) {
+            return dirsOnTop ? 1 : -1;
+        }
+
+        int res;
+        if (sort == SORT_DATE) {
+            res = compare(keys.numbers[a], keys.numbers[b]);
+        } else if (sort == SORT_SIZE && keys.files[a] && keys.files[b]) {
+            res = compare(keys.numbers[a], keys.numbers[b]);
+        } else if (sort == SORT_TYPE && keys.files[a] && keys.files[b]) {
+            res = keys.extensions[a].compareTo(keys.extensions[b]);
+        } else {
+            res = keys.names[a].compareToIgnoreCase(keys.names[b]);
+        }
+
+        if(res == 0)
+            return 0;
+
+        return asc && res < 0 ? -1 : 1;
+    }
+
+    /**
+     * 排序用到的属性，每个文件只取一次
+     */
+    private static class Keys {
+        final String[] names;
+        final boolean[] directories;
+        final boolean[] files;
+        /**
+         * 按时间排序时是修改时间，按大小排序时是文件大小
+         */
+        final long[] numbers;
+        final String[] extensions;
+
+        Keys(JecFile[] list, int sort) {
+            int count = list.length;
+            names = new String[count];
+            directories = new boolean[count];
+            files = new boolean[count];
+            numbers = new long[count];
+            extensions = sort == SORT_TYPE ? new String[count] : null;
+            for (int i = 0; i < count; i++) {
+                JecFile file = list[i];
+                names[i] = file.getName();
+                directories[i] = file.isDirectory();
+                files[i] = file.isFile();
+                if (sort == SORT_DATE) {
+                    numbers[i] = file.lastModified();
+                } else if (sort == SORT_SIZE && files[i]) {
+                    numbers[i] = file.length();
+                } else if (sort == SORT_TYPE && files[i]) {
+                    extensions[i] = getExtension(names[i]);
+                }
+            }
+        }
+    }
+
     public static int compare(long lhs, long rhs) {
         return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
     }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.android.file_explorer.util;
+
+import com.jecelyin.common.utils.L;
+import com.stericson.RootShell.RootShell;
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.Shell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 把多条 shell 命令合成一个 {@link Command} 交给常驻的 root shell，只等一次。
+ * 每条命令后面输出一行带序号和退出码的分隔标记，按标记把输出拆回每条命令
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+public class RootBatch {
+    private static final String SENTINEL = "--920-batch--";
+
+    private final List<String> commands = new ArrayList<>();
+    private List<String>[] outputs;
+    private int[] exitCodes;
+
+    public interface OnFinishListener {
+        void onFinish(RootBatch batch);
+    }
+
+    /**
+     * 在 shell 中原样使用的参数，用单引号包起来，文件名中有引号、空格或 $ 都不会出错
+     */
+    public static String quote(String arg) {
+        return "'" + arg.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * @return 命令的序号，用来取结果
+     */
+    public int add(String command) {
+        commands.add(command);
+        return commands.size() - 1;
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    /**
+     * 在后台线程中调用，等所有命令执行完
+     *
+     * @return shell 不可用时返回 false
+     */
+    public boolean execute() {
+        Command command = newCommand(false, null);
+        try {
+            Shell shell = RootShell.getShell(true);
+            shell.add(command);
+            RootUtils.commandWait(shell, command);
+            return true;
+        } catch (Exception e) {
+            L.e(e);
+            return false;
+        }
+    }
+
+    /**
+     * 不等待，执行完后在调用的线程中回调
+     */
+    public void executeAsync(OnFinishListener listener) {
+        Command command = newCommand(true, listener);
+        try {
+            RootShell.getShell(true).add(command);
+        } catch (Exception e) {
+            L.e(e);
+            if (listener != null)
+                listener.onFinish(this);
+        }
+    }
+
+    /**
+     * @return 命令的退出码，没有执行到时返回 -1
+     */
+    public int getExitCode(int index) {
+        return exitCodes == null ? -1 : exitCodes[index];
+    }
+
+    public List<String> getOutput(int index) {
+        return outputs == null ? new ArrayList<String>() : outputs[index];
+    }
+
+    /**
+     * 和 {@link RootUtils.RootCommand} 的判断一样，退出码为0并且没有输出错误信息
+     */
+    public boolean isSuccess(int index) {
+        if (getExitCode(index) != 0)
+            return false;
+        for (String line : getOutput(index)) {
+            if (!line.trim().isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Command newCommand(boolean handlerEnabled, final OnFinishListener listener) {
+        final int count = commands.size();
+        outputs = new List[count];
+        for (int i = 0; i < count; i++) {
+            outputs[i] = new ArrayList<>();
+        }
+        exitCodes = new int[count];
+        Arrays.fill(exitCodes, -1);
+
+        String[] lines = new String[count * 2];
+        for (int i = 0; i < count; i++) {
+            lines[i * 2] = commands.get(i);
+            lines[i * 2 + 1] = "echo \"" + SENTINEL + " " + i + " $?\"";
+        }
+
+        return new Command(0, handlerEnabled, lines) {
+            private int current;
+
+            @Override
+            public void commandOutput(int id, String line) {
+                if (line.startsWith(SENTINEL)) {
+                    String[] parts = line.split(" ");
+                    try {
+                        exitCodes[Integer.parseInt(parts[1])] = Integer.parseInt(parts[2]);
+                    } catch (Exception e) {
+                        L.e("bad batch sentinel: " + line, e);
+                    }
+                    current++;
+                } else if (current < count) {
+                    outputs[current].add(line);
+                }
+                super.commandOutput(id, line);
+            }
+
+            @Override
+            public void commandCompleted(int id, int exitcode) {
+                super.commandCompleted(id, exitcode);
+                if (listener != null)
+                    listener.onFinish(RootBatch.this);
+            }
+
+            @Override
+            public void commandTerminated(int id, String reason) {
+                super.commandTerminated(id, reason);
+                if (listener != null)
+                    listener.onFinish(RootBatch.this);
+            }
+        };
+    }
+}
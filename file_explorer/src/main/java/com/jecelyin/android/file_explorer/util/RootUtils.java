@@ -21,15 +21,16 @@ package com.jecelyin.android.file_explorer.util;
 import android.text.TextUtils;
 
 import com.jecelyin.common.utils.L;
-import com.stericson.RootShell.RootShell;
 import com.stericson.RootShell.execution.Command;
 import com.stericson.RootShell.execution.Shell;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 /**
  * @author Jecelyin Peng <jecelyin@gmail.com>
@@ -97,6 +98,15 @@ public class RootUtils {
     }
 
     public static String getRealPath(String file) {
+        //有 readlink 时一次就能得到结果，不用每一级目录都 ls 一次
+        RootBatch batch = new RootBatch();
+        batch.add("readlink -f " + RootBatch.quote(file) + " 2>/dev/null");
+        if (batch.execute() && batch.getExitCode(0) == 0) {
+            List<String> output = batch.getOutput(0);
+            if (!output.isEmpty() && output.get(0).startsWith("/"))
+                return output.get(0).trim();
+        }
+
         List<String> paths = new ArrayList<>();
         File parent = new File(file);
 
@@ -129,29 +139,23 @@ public class RootUtils {
     }
 
     public static List<FileInfo> listFileInfo(String path) {
-        final List<String> result = new ArrayList<>();
         final List<FileInfo> files = new ArrayList<>();
 
-        Command command = new Command(0, false, "ls -la \"" + path + "\"") {
-            @Override
-            public void commandOutput(int id, String line) {
-                RootShell.log(line);
-                result.add(line);
-
-                super.commandOutput(id, line);
-            }
-        };
-
-        try {
-            //Try without root...
-            Shell shell = RootShell.getShell(true);
-            shell.add(command);
-            RootUtils.commandWait(shell, command);
-
-        } catch (Exception e) {
-            L.e(e);
+        //列表、指向目录的符号链接和 path 本身是否目录在同一次 shell 调用中取得，
+        //不用再为每个符号链接单独 ls 一次
+        String quoted = RootBatch.quote(path);
+        RootBatch batch = new RootBatch();
+        int lsIndex = batch.add("ls -la " + quoted);
+        int linkIndex = batch.add("for f in " + quoted + "/* " + quoted + "/.* " + quoted
+                + "; do [ -L \"$f\" ] && [ -d \"$f\" ] && echo \"${f##*/}\"; done");
+        int dirIndex = batch.add("[ -d " + quoted + " ] && echo d");
+        if (!batch.execute())
             return files;
-        }
+
+        List<String> result = batch.getOutput(lsIndex);
+        Set<String> directoryLinks = new HashSet<>(batch.getOutput(linkIndex));
+        //相对的链接目标相对于链接所在的目录
+        String linkBase = batch.getOutput(dirIndex).isEmpty() ? new File(path).getParent() : trimEndSlashes(path);
 
         for (String line : result) {
             line = line.trim();
@@ -171,17 +175,23 @@ public class RootUtils {
                 continue;
             }
             try {
-                files.add(lsParser(path, line));
+                files.add(lsParser(linkBase, line, directoryLinks));
             } catch (Exception e) {
                 L.e("parse line error: " + line, e);
             }
         }
 
-        result.clear();
         return files;
     }
 
-    private static FileInfo lsParser(String path, String line) {
+    private static String trimEndSlashes(String path) {
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/')
+            end--;
+        return path.substring(0, end);
+    }
+
+    private static FileInfo lsParser(String linkBase, String line, Set<String> directoryLinks) {
         final String[] split = line.split(" ");
         int index = 0;
 
@@ -260,7 +270,7 @@ public class RootUtils {
                 file.name = splitSl[0].trim();
                 String realPath = splitSl[1].trim();
                 if (realPath.charAt(0) != '/') {
-                    file.linkedPath  = new File(path).getParent() + "/" + realPath;
+                    file.linkedPath  = linkBase + "/" + realPath;
                 } else {
                     file.linkedPath  = realPath;
                 }
@@ -286,18 +296,7 @@ public class RootUtils {
             file.isDirectory = true;
         } else if (type == 'l') {
             file.isSymlink = true;
-            String linkPath = file.linkedPath;
-            for (;;) {
-                List<FileInfo> fileInfos = listFileInfo(linkPath);
-                if (fileInfos.isEmpty())
-                    break;
-                FileInfo fi = fileInfos.get(0);
-                if (!fi.isSymlink) {
-                    file.isDirectory = fi.isDirectory;
-                    break;
-                }
-                linkPath = fi.linkedPath;
-            }
+            file.isDirectory = directoryLinks.contains(file.name);
         }
 
         return file;
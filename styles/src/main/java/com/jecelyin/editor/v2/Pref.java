@@ -70,9 +70,11 @@ public class Pref implements SharedPreferences.OnSharedPreferenceChangeListener
     public static final String KEY_FILE_SORT_TYPE = "show_file_sort";
     public static final String KEY_FULL_SCREEN = "fullscreen_mode";
     public static final String KEY_LAST_TAB = "last_tab";
+    public static final String KEY_RECENT_MODES = "recent_modes";
 
     public static final int DEF_MIN_FONT_SIZE = 9;
     public static final int DEF_MAX_FONT_SIZE = 32;
+    public static final int MAX_RECENT_MODES = 5;
 
     public static final int SCREEN_ORIENTATION_AUTO = 0;
     public static final int SCREEN_ORIENTATION_LANDSCAPE = 1;
@@ -156,6 +158,7 @@ public class Pref implements SharedPreferences.OnSharedPreferenceChangeListener
         map.put(KEY_FILE_SORT_TYPE, 0);
         map.put(KEY_FULL_SCREEN, false);
         map.put(KEY_LAST_TAB, 0);
+        map.put(KEY_RECENT_MODES, "");
 
         Map<String, ?> values = pm.getAll();
         for(String key : map.keySet()) {
@@ -412,4 +415,29 @@ public class Pref implements SharedPreferences.OnSharedPreferenceChangeListener
     public boolean isEnabledDrawers() {
         return (boolean)map.get(KEY_PREF_ENABLE_DRAWERS);
     }
+
+    /**
+     * @return 最近使用过的语法名称，最近的在前面
+     */
+    public String[] getRecentModes() {
+        String modes = (String) map.get(KEY_RECENT_MODES);
+        return TextUtils.isEmpty(modes) ? new String[0] : modes.split(",");
+    }
+
+    public void addRecentMode(String name) {
+        String[] modes = getRecentModes();
+        if (modes.length > 0 && modes[0].equals(name))
+            return;
+        StringBuilder sb = new StringBuilder(name);
+        int count = 1;
+        for (int i = 0; i < modes.length && count < MAX_RECENT_MODES; i++) {
+            if (modes[i].equals(name))
+                continue;
+            sb.append(',').append(modes[i]);
+            count++;
+        }
+        String value = sb.toString();
+        pm.edit().putString(KEY_RECENT_MODES, value).apply();
+        map.put(KEY_RECENT_MODES, value);
+    }
 }
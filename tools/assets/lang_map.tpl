@@ -18,16 +18,17 @@
 
 package com.jecelyin.editor.v2.highlight;
 
-import com.jecelyin.editor.v2.R;
-
 /**
  * @author Jecelyin Peng <jecelyin@gmail.com>
  */
 public class LangMap {
-    public static int get(String filename) {
+    /**
+     * @return 语法文件在 assets 中的路径
+     */
+    public static String get(String filename) {
         switch(filename) {
 @CASE_LIST@
         }
-        return 0;
+        return null;
     }
 }
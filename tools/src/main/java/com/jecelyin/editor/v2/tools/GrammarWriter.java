@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.editor.v2.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 生成二进制语法文件，程序用 mmap 直接读取，格式要和 app 里的 GrammarFile 保持一致。
+ * 所有数字都是大端：
+ *
+ * <pre>
+ * int     MAGIC、字符串数量、节点数量、属性数量、字符数量、附加数据长度
+ * int[]   每个字符串在字符表中的开始位置，共 字符串数量 + 1 个
+ * char[]  字符表（UTF-16）
+ * int[7]  每个节点：标签、文本（-1 表示没有）、第一个属性、属性数量、子节点数量、附加数据位置（-1 表示没有）、附加数据长度
+ * int[2]  每个属性：名字、值
+ * byte[]  附加数据，比如 KEYWORD_TABLE
+ * </pre>
+ *
+ * 节点按先序排列，子节点紧跟在父节点后面；标签、文本和属性都是字符串的序号
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+public class GrammarWriter {
+    private final static int MAGIC = 0x39324732; //92G2
+
+    private final HashMap<String, Integer> stringIndex = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final List<int[]> nodes = new ArrayList<>();
+    private final List<int[]> attrs = new ArrayList<>();
+    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+    public void addNode(String tag, String text, Map<String, String> attributes, int childCount, byte[] payload) {
+        int firstAttr = attrs.size();
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            attrs.add(new int[]{string(entry.getKey()), string(entry.getValue())});
+        }
+        int dataOffset = -1;
+        int dataLength = 0;
+        if (payload != null) {
+            dataOffset = data.size();
+            dataLength = payload.length;
+            data.write(payload, 0, payload.length);
+        }
+        nodes.add(new int[]{
+                string(tag),
+                text == null || text.isEmpty() ? -1 : string(text),
+                firstAttr,
+                attributes.size(),
+                childCount,
+                dataOffset,
+                dataLength
+        });
+    }
+
+    private int string(String s) {
+        Integer index = stringIndex.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s);
+            stringIndex.put(s, index);
+        }
+        return index;
+    }
+
+    public void write(File file) throws IOException {
+        int charCount = 0;
+        for (String s : strings) {
+            charCount += s.length();
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(strings.size());
+            out.writeInt(nodes.size());
+            out.writeInt(attrs.size());
+            out.writeInt(charCount);
+            out.writeInt(data.size());
+
+            int offset = 0;
+            for (String s : strings) {
+                out.writeInt(offset);
+                offset += s.length();
+            }
+            out.writeInt(offset);
+            for (String s : strings) {
+                out.writeChars(s);
+            }
+            for (int[] node : nodes) {
+                for (int value : node) {
+                    out.writeInt(value);
+                }
+            }
+            for (int[] attr : attrs) {
+                out.writeInt(attr[0]);
+                out.writeInt(attr[1]);
+            }
+            data.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+}
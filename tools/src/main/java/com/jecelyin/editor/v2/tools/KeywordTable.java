@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 Jecelyin Peng <jecelyin@gmail.com>
+ *
+ * This file is part of 920 Text Editor.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jecelyin.editor.v2.tools;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 把 KEYWORDS 里的关键字预先编译成字典树，程序加载语法时直接读取，不用再逐个添加关键字。
+ * 格式要和 app 里的 KeywordMap.addTable() 及 KeywordTrie.read() 保持一致：
+ *
+ * <pre>
+ * boolean 忽略大小写
+ * UTF     关键字中用到的非字母数字字符，和 KeywordMap.getNonAlphaNumericChars() 的结果一样
+ * short   类型数量，后面是每个类型的名字（KEYWORD1 等）
+ * int     关键字数量，后面是每个关键字和类型序号（从 1 开始）
+ * int     节点数量，后面是每个节点的类型序号（0 表示不是关键字）
+ * char[]  每个节点的边数
+ * char[]  每条边的字符，同一个节点的边按字符排序
+ * </pre>
+ *
+ * 程序直接使用字典树时会跳过关键字列表，只在需要列出或者合并关键字时才解码
+ *
+ * 节点按层次遍历的顺序编号，第 i 条边指向第 i + 1 个节点，所以不用保存边的终点
+ *
+ * @author Jecelyin Peng <jecelyin@gmail.com>
+ */
+public class KeywordTable {
+
+    private static class TrieNode {
+        TreeMap<Character, TrieNode> children = new TreeMap<>();
+        int type;
+    }
+
+    /**
+     * @return 没有关键字时返回 null
+     */
+    public static byte[] compile(Element keywordsElement) throws IOException {
+        Element rulesElement = (Element) keywordsElement.getParentNode();
+        String ignoreCaseAttr = rulesElement.getAttribute("IGNORE_CASE");
+        boolean ignoreCase = ignoreCaseAttr.isEmpty() || "TRUE".equals(ignoreCaseAttr);
+
+        List<String> types = new ArrayList<>();
+        List<String> keywords = new ArrayList<>();
+        List<Integer> keywordTypes = new ArrayList<>();
+
+        NodeList childNodes = keywordsElement.getChildNodes();
+        for (int i = 0; i < childNodes.getLength(); i++) {
+            Node item = childNodes.item(i);
+            if (item.getNodeType() != Node.ELEMENT_NODE)
+                continue;
+            String keyword = text(item);
+            if (keyword.isEmpty())
+                continue;
+            String type = item.getNodeName();
+            int index = types.indexOf(type);
+            if (index < 0) {
+                types.add(type);
+                index = types.size() - 1;
+            }
+            keywords.add(keyword);
+            keywordTypes.add(index + 1);
+        }
+        if (keywords.isEmpty())
+            return null;
+        if (types.size() > 255)
+            throw new RuntimeException("Too many keyword types: " + types.size());
+
+        //和 KeywordMap.add() 的顺序一样
+        StringBuilder noWordSep = new StringBuilder();
+        for (String keyword : keywords) {
+            for (char c : keyword.toCharArray()) {
+                if (!Character.isLetterOrDigit(c) && noWordSep.indexOf(String.valueOf(c)) < 0)
+                    noWordSep.append(c);
+            }
+        }
+
+        //按添加顺序生成，同一个关键字后面的类型覆盖前面的
+        TrieNode root = new TrieNode();
+        for (int i = 0; i < keywords.size(); i++) {
+            TrieNode node = root;
+            for (char c : keywords.get(i).toCharArray()) {
+                if (ignoreCase)
+                    c = Character.toUpperCase(c);
+                TrieNode next = node.children.get(c);
+                if (next == null) {
+                    next = new TrieNode();
+                    node.children.put(c, next);
+                }
+                node = next;
+            }
+            node.type = keywordTypes.get(i);
+        }
+
+        //按层次遍历编号，同一个节点的边是连续的
+        List<TrieNode> queue = new ArrayList<>();
+        List<Character> edgeChars = new ArrayList<>();
+        queue.add(root);
+        for (int i = 0; i < queue.size(); i++) {
+            for (Map.Entry<Character, TrieNode> entry : queue.get(i).children.entrySet()) {
+                edgeChars.add(entry.getKey());
+                queue.add(entry.getValue());
+            }
+        }
+        int nodeCount = queue.size();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBoolean(ignoreCase);
+        out.writeUTF(noWordSep.toString());
+        out.writeShort(types.size());
+        for (String type : types) {
+            out.writeUTF(type);
+        }
+        out.writeInt(keywords.size());
+        for (int i = 0; i < keywords.size(); i++) {
+            out.writeUTF(keywords.get(i));
+            out.writeByte(keywordTypes.get(i));
+        }
+        out.writeInt(nodeCount);
+        for (TrieNode node : queue) {
+            out.writeByte(node.type);
+        }
+        for (TrieNode node : queue) {
+            out.writeChar(node.children.size());
+        }
+        for (char c : edgeChars) {
+            out.writeChar(c);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static String text(Node node) {
+        StringBuilder text = new StringBuilder();
+        NodeList childNodes = node.getChildNodes();
+        for (int i = 0; i < childNodes.getLength(); i++) {
+            Node item = childNodes.item(i);
+            if (item.getNodeType() == Node.TEXT_NODE)
+                text.append(item.getTextContent().trim());
+        }
+        return text.toString();
+    }
+}
@@ -18,8 +18,6 @@
 
 package com.jecelyin.editor.v2.tools;
 
-import org.msgpack.core.MessagePack;
-import org.msgpack.core.MessagePacker;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
@@ -33,17 +31,16 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -54,8 +51,8 @@ import static com.jecelyin.editor.v2.tools.Tool.*;
 public class XML2Bin {
     private static File assetsPath;
     private static File highlightPath;
-    private static File rawPath;
-    private static MessagePacker packer;
+    private static File grammarPath;
+    private static GrammarWriter writer;
 
     public static void main(String[] args) {
         File f = new File(".");
@@ -65,9 +62,13 @@ public class XML2Bin {
         assetsPath = new File(path, "tools/assets");
         File syntax = new File(assetsPath, "syntax");
 
-        rawPath = new File(path, "app/src/main/res/raw");
-        for (File f2 : rawPath.listFiles()) {
-            f2.delete();
+        grammarPath = new File(path, "app/src/main/assets/syntax");
+        if (grammarPath.isDirectory()) {
+            for (File f2 : grammarPath.listFiles()) {
+                f2.delete();
+            }
+        } else {
+            grammarPath.mkdirs();
         }
 
         File[] files = syntax.listFiles(new FilenameFilter() {
@@ -76,6 +77,8 @@ public class XML2Bin {
                 return s.endsWith(".xml");
             }
         });
+        //按文件名排序，生成的 LangMap 不受文件系统顺序影响
+        Arrays.sort(files);
 
         StringBuilder mapCode = new StringBuilder();
         try {
@@ -94,7 +97,7 @@ public class XML2Bin {
     }
 
     private static void parseXml(final File file, StringBuilder mapCode) throws Exception {
-        String clsName = fileNameToResName(file.getName()) + "_lang";
+        String grammarName = fileNameToResName(file.getName()) + ".lang";
 
         DocumentBuilderFactory dbFactory
                 = DocumentBuilderFactory.newInstance();
@@ -121,16 +124,14 @@ public class XML2Bin {
 
                 if (!item.getNodeName().equals("MODE"))
                     throw new RuntimeException("!MODE: " + item.getNodeName());
-                File langFile = new File(rawPath, clsName);
-                packer = MessagePack.newDefaultPacker(new FileOutputStream(langFile));
+                writer = new GrammarWriter();
 
                 handleChild((Element)item);
 
+                writer.write(new File(grammarPath, grammarName));
                 mapCode.append(space(12)).append("case ").append(textString(file.getName()))
-                        .append(": return R.raw.").append(clsName).append(";\n");
-
+                        .append(": return ").append(textString("syntax/" + grammarName)).append(";\n");
 
-                packer.close();
             }
         }
     }
@@ -159,20 +160,20 @@ public class XML2Bin {
     private static void handleChild(Node node) throws IOException {
         String tag = node.getNodeName();
 
-        packer.packString(tag);
-
         StringBuilder text = new StringBuilder();
         List<Node> nodes = nodes(node, text);
-        packer.packString(text.toString());
-
         HashMap<String, String> attrs = attrs(node);
-        packer.packMapHeader(attrs.size());
-        for (Map.Entry<String, String> entry : attrs.entrySet()) {
-            packer.packString(entry.getKey());
-            packer.packString(entry.getValue());
+
+        if (tag.equals("KEYWORDS")) {
+            //关键字预先编译成字典树，代替逐个的关键字元素
+            byte[] table = KeywordTable.compile((Element) node);
+            writer.addNode(tag, text.toString(), attrs, table == null ? 0 : 1, null);
+            if (table != null)
+                writer.addNode("KEYWORD_TABLE", null, new HashMap<String, String>(), 0, table);
+            return;
         }
 
-        packer.packInt(nodes.size());
+        writer.addNode(tag, text.toString(), attrs, nodes.size(), null);
         for (Node child : nodes) {
             handleChild(child);
         }